@@ -0,0 +1,119 @@
+import jstream.benchmarks.BenchmarkTarget;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The StreamFilterTarget class implements the benchmark operations on a {@link StreamFilter}.
+ * It belongs to the unnamed package, like the engine, so that it can reach the package-private parts of the engine.
+ */
+public class StreamFilterTarget implements BenchmarkTarget {
+    private final StreamFilter streamFilter = new StreamFilter();
+    private final MatchScratch scratch = new MatchScratch();
+    private final MatchScratch scalarScratch = new MatchScratch();
+    private final StringBuilder output = new StringBuilder();
+    private final ResultSink sink = new AppendableSink(output);
+
+    public StreamFilterTarget() {
+        scalarScratch.tokenizer.vector = null;
+    }
+
+    @Override
+    public void define(List<String> lines) {
+        lines.forEach(streamFilter::filter);
+    }
+
+    @Override
+    public void setSignatureFilter(boolean enabled) {
+        streamFilter.setSignatureFilter(enabled);
+    }
+
+    @Override
+    public void setMatchCache(int entries) {
+        streamFilter.cache = new MatchCache(entries, MatchCache.DEFAULT_BYTES);
+    }
+
+    @Override
+    public void optimize() {
+        streamFilter.optimizeFilters();
+    }
+
+    @Override
+    public void setMetrics(boolean enabled) {
+        streamFilter.getMetrics().setEnabled(enabled);
+    }
+
+    @Override
+    public String filter(String line) {
+        return streamFilter.filter(line);
+    }
+
+    @Override
+    public int filterToSink(List<String> lines) {
+        output.setLength(0);
+        try {
+            for (String line : lines) streamFilter.filter(line, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.length();
+    }
+
+    @Override
+    public String[] filterBatch(List<String> lines) {
+        return streamFilter.filterBatch(lines);
+    }
+
+    @Override
+    public int tokenize(String logLine) {
+        // Keeps the text of the line for the phrase and prefix filters, as StreamFilter.matchLogOfLine() does
+        scratch.tokenizer.tokenize(logLine, "LOL:".length(), logLine.length(), streamFilter.dictionary, scratch.lineTerms,
+                streamFilter.patterns.size() > 0);
+        return scratch.lineTerms.size();
+    }
+
+    @Override
+    public int tokenizeScalar(String logLine) {
+        scalarScratch.tokenizer.tokenize(logLine, "LOL:".length(), logLine.length(), streamFilter.dictionary, scalarScratch.lineTerms,
+                streamFilter.patterns.size() > 0);
+        return scalarScratch.lineTerms.size();
+    }
+
+    @Override
+    public int tokenizeLegacy(String logLine) {
+        return legacyLineSet(logLine).size();
+    }
+
+    @Override
+    public int match(String logLine) {
+        tokenize(logLine);
+        return streamFilter.checkFilterMatch(scratch.lineTerms, scratch).length;
+    }
+
+    @Override
+    public int scan(String logLine) {
+        tokenize(logLine);
+        int matches = 0;
+        for (IFilter filter : streamFilter.filters.values())
+            if (filter.doMatch(scratch.lineTerms)) matches++;
+        return matches;
+    }
+
+    @Override
+    public int scanLegacy(String logLine) {
+        HashSet<String> lineSet = legacyLineSet(logLine);
+        int matches = 0;
+        for (IFilter filter : streamFilter.filters.values())
+            if (filter.doMatch(lineSet)) matches++;
+        return matches;
+    }
+
+    private static HashSet<String> legacyLineSet(String logLine) {
+        String normalizedLine = logLine.substring("LOL:".length()).trim();
+        String normalizedLine2 = normalizedLine.replaceAll("\\p{Punct}", "").trim();
+        return new HashSet<>(Arrays.asList(normalizedLine2.toLowerCase().split("\s+")));
+    }
+}
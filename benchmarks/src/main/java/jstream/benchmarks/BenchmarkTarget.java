@@ -0,0 +1,132 @@
+package jstream.benchmarks;
+
+import java.util.List;
+
+/**
+ * The BenchmarkTarget interface exposes the operations of the filter engine to the benchmarks.
+ * The engine lives in the unnamed package, which classes of a named package cannot refer to, while JMH requires
+ * benchmarks to be in a named package. The implementation, StreamFilterTarget, is therefore an unnamed package
+ * class loaded by name, and the benchmarks call it through this interface.
+ */
+public interface BenchmarkTarget {
+    /**
+     * Creates a target around a new, empty StreamFilter.
+     *
+     * @return the benchmark target
+     */
+    static BenchmarkTarget create() {
+        try {
+            return (BenchmarkTarget) Class.forName("StreamFilterTarget").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("StreamFilterTarget cannot be instantiated", e);
+        }
+    }
+
+    /**
+     * Processes the given lines one by one with StreamFilter.filter(), typically to register filters.
+     *
+     * @param lines the input lines
+     */
+    void define(List<String> lines);
+
+    /**
+     * Enables or disables the signature check of the inverted index.
+     *
+     * @param enabled true to skip the filters whose term signature is not a subset of the line signature
+     */
+    void setSignatureFilter(boolean enabled);
+
+    /**
+     * Replaces the match cache of the StreamFilter, before any log line was processed.
+     *
+     * @param entries the maximum number of log lines whose matches are cached; 0 disables the cache
+     */
+    void setMatchCache(int entries);
+
+    /**
+     * Reorders the terms of the filters according to the term statistics gathered from the log lines processed so far.
+     */
+    void optimize();
+
+    /**
+     * Enables or disables the metrics of the StreamFilter.
+     *
+     * @param enabled true to collect the metrics while lines are processed
+     */
+    void setMetrics(boolean enabled);
+
+    /**
+     * Processes one input line end-to-end with StreamFilter.filter().
+     *
+     * @param line the input line
+     * @return the response, or null
+     */
+    String filter(String line);
+
+    /**
+     * Processes input lines one by one with StreamFilter.filter(String, ResultSink),
+     * writing the responses into a reused text buffer instead of returning Strings.
+     *
+     * @param lines the input lines
+     * @return the number of characters written for the responses
+     */
+    int filterToSink(List<String> lines);
+
+    /**
+     * Processes a batch of input lines with StreamFilter.filterBatch().
+     *
+     * @param lines the input lines
+     * @return the responses at the positions of the input lines
+     */
+    String[] filterBatch(List<String> lines);
+
+    /**
+     * Tokenizes a log line into its term identifiers with the LineTokenizer.
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of known terms of the line
+     */
+    int tokenize(String logLine);
+
+    /**
+     * Tokenizes a log line into its term identifiers with a LineTokenizer restricted to its scalar path,
+     * i.e. without the Vector API even when it is available.
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of known terms of the line
+     */
+    int tokenizeScalar(String logLine);
+
+    /**
+     * Tokenizes a log line into a HashSet with the regular expressions used before the LineTokenizer.
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of distinct tokens of the line
+     */
+    int tokenizeLegacy(String logLine);
+
+    /**
+     * Tokenizes a log line and matches it with StreamFilter.checkFilterMatch().
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of matching filters
+     */
+    int match(String logLine);
+
+    /**
+     * Tokenizes a log line and evaluates IFilter.doMatch(LineTerms) on every registered filter.
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of matching filters
+     */
+    int scan(String logLine);
+
+    /**
+     * Tokenizes a log line into a HashSet and evaluates FilterMatchAll.doMatch(HashSet) on every registered filter,
+     * which is how lines were matched before the inverted index.
+     *
+     * @param logLine a line with the prefix "LOL:"
+     * @return the number of matching filters
+     */
+    int scanLegacy(String logLine);
+}
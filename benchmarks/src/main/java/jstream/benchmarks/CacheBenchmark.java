@@ -0,0 +1,66 @@
+package jstream.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the matching of repetitive log lines with and without the match cache of StreamFilter.
+ * The lines are drawn from a pool of distinct lines with a skewed distribution, as heartbeats and recurring errors are:
+ * a small pool fits in the cache, while a pool much larger than the cache measures the overhead of the misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    static final int DRAWS = 1 << 16;
+
+    @Param({"1000", "100000"})
+    int filterCount;
+
+    @Param({"64", "65536"})
+    int distinctLines;
+
+    private BenchmarkTarget cached;
+    private BenchmarkTarget uncached;
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Workload workload = new Workload(42);
+        List<String> filterLines = workload.filterLines(filterCount, 1, 3);
+        cached = BenchmarkTarget.create();
+        cached.define(filterLines);
+        uncached = BenchmarkTarget.create();
+        uncached.setMatchCache(0);
+        uncached.define(filterLines);
+        List<String> pool = workload.logLines(distinctLines, 16);
+        Random random = new Random(42);
+        lines = new String[DRAWS];
+        // The square of a uniform draw favors the first lines of the pool
+        for (int i = 0; i < DRAWS; i++) {
+            double u = random.nextDouble();
+            lines[i] = pool.get((int) (u * u * distinctLines));
+        }
+    }
+
+    private String nextLine() {
+        return lines[next++ & (DRAWS - 1)];
+    }
+
+    @Benchmark
+    public int cached() {
+        return cached.match(nextLine());
+    }
+
+    @Benchmark
+    public int uncached() {
+        return uncached.match(nextLine());
+    }
+}
@@ -0,0 +1,60 @@
+package jstream.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end throughput of StreamFilter in input lines per second,
+ * processing the lines one by one with filter(), one by one into a reused {@code ResultSink}, or as one batch with filterBatch().
+ * Each invocation processes the same block of log lines; filters are only defined during the setup,
+ * so that the filter count stays the same across invocations.
+ * The metrics parameter compares the throughput with the metrics of the StreamFilter disabled and enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+    static final int LINES = 10_000;
+
+    @Param({"100", "10000"})
+    int filterCount;
+
+    @Param({"false", "true"})
+    boolean metrics;
+
+    private BenchmarkTarget target;
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        Workload workload = new Workload(42);
+        target = BenchmarkTarget.create();
+        target.define(workload.filterLines(filterCount, 1, 3));
+        target.setMetrics(metrics);
+        lines = workload.logLines(LINES, 16);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void filter(Blackhole blackhole) {
+        for (String line : lines) blackhole.consume(target.filter(line));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int filterToSink() {
+        return target.filterToSink(lines);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public String[] filterBatch() {
+        return target.filterBatch(lines);
+    }
+}
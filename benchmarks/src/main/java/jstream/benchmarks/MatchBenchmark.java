@@ -0,0 +1,83 @@
+package jstream.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the matching of one log line against a growing number of filters:
+ * the inverted index used by StreamFilter.checkFilterMatch(), with and without the signature check of its posting entries,
+ * against evaluating FilterMatchAll.doMatch() on every filter, with term identifiers or with the former HashSet of Strings.
+ * The index probes the extra terms of the filters of its lattice in the order of the filter, or rarest first once
+ * it was optimized from the term statistics of a stream of log lines.
+ * The match cache is disabled, as the lines are cycled through; CacheBenchmark measures it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+    @Param({"10", "1000", "100000"})
+    int filterCount;
+
+    @Param({"8", "32"})
+    int lineLength;
+
+    private BenchmarkTarget target;
+    private BenchmarkTarget targetWithSignatures;
+    private BenchmarkTarget optimizedTarget;
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Workload workload = new Workload(42);
+        target = BenchmarkTarget.create();
+        target.setMatchCache(0);
+        List<String> filterLines = workload.filterLines(filterCount, 1, 3);
+        target.define(filterLines);
+        targetWithSignatures = BenchmarkTarget.create();
+        targetWithSignatures.setMatchCache(0);
+        targetWithSignatures.setSignatureFilter(true);
+        targetWithSignatures.define(filterLines);
+        lines = workload.logLines(1024, lineLength).toArray(new String[0]);
+        optimizedTarget = BenchmarkTarget.create();
+        optimizedTarget.setMatchCache(0);
+        optimizedTarget.define(filterLines);
+        // Enough log lines for the term statistics to be published at least once
+        optimizedTarget.define(workload.logLines(1 << 17, lineLength));
+        optimizedTarget.optimize();
+    }
+
+    private String nextLine() {
+        return lines[next++ & (lines.length - 1)];
+    }
+
+    @Benchmark
+    public int checkFilterMatch() {
+        return target.match(nextLine());
+    }
+
+    @Benchmark
+    public int checkFilterMatchWithSignatures() {
+        return targetWithSignatures.match(nextLine());
+    }
+
+    @Benchmark
+    public int doMatchLineTerms() {
+        return target.scan(nextLine());
+    }
+
+    @Benchmark
+    public int checkFilterMatchRarestFirst() {
+        return optimizedTarget.match(nextLine());
+    }
+
+    @Benchmark
+    public int doMatchHashSet() {
+        return target.scanLegacy(nextLine());
+    }
+}
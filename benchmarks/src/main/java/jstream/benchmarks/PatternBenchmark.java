@@ -0,0 +1,57 @@
+package jstream.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the matching of one log line against a growing number of phrase ("QP:") and prefix ("QX:") filters:
+ * the Aho-Corasick automaton of the PatternIndex, scanning the line once, against evaluating
+ * IPatternFilter.doMatch() on every filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternBenchmark {
+    @Param({"10", "1000", "100000"})
+    int filterCount;
+
+    @Param({"8", "32"})
+    int lineLength;
+
+    private BenchmarkTarget target;
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Workload workload = new Workload(42);
+        target = BenchmarkTarget.create();
+        List<String> filterLines = workload.filterLines(filterCount, 1, 3);
+        // Half phrase filters, half prefix filters
+        for (int i = 0; i < filterLines.size(); i++)
+            filterLines.set(i, (i % 2 == 0 ? "QP:" : "QX:") + filterLines.get(i).substring("QF:".length()));
+        target.define(filterLines);
+        lines = workload.logLines(1024, lineLength).toArray(new String[0]);
+        // The first match compiles the automaton
+        target.match(lines[0]);
+    }
+
+    private String nextLine() {
+        return lines[next++ & (lines.length - 1)];
+    }
+
+    @Benchmark
+    public int automaton() {
+        return target.match(nextLine());
+    }
+
+    @Benchmark
+    public int doMatchEachFilter() {
+        return target.scan(nextLine());
+    }
+}
@@ -0,0 +1,52 @@
+package jstream.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the normalization of log lines: the single-pass LineTokenizer, with its Vector API path and restricted
+ * to its scalar path, against the former replaceAll/toLowerCase/split/HashSet sequence, for several line lengths.
+ * The forks add the module jdk.incubator.vector, without which the tokenizer only has its scalar path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TokenizerBenchmark {
+    @Param({"8", "32", "128"})
+    int lineLength;
+
+    private BenchmarkTarget target;
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Workload workload = new Workload(42);
+        target = BenchmarkTarget.create();
+        target.define(workload.filterLines(10_000, 1, 3));
+        lines = workload.logLines(1024, lineLength).toArray(new String[0]);
+    }
+
+    private String nextLine() {
+        return lines[next++ & (lines.length - 1)];
+    }
+
+    @Benchmark
+    public int tokenize() {
+        return target.tokenize(nextLine());
+    }
+
+    @Benchmark
+    public int tokenizeScalar() {
+        return target.tokenizeScalar(nextLine());
+    }
+
+    @Benchmark
+    public int tokenizeLegacy() {
+        return target.tokenizeLegacy(nextLine());
+    }
+}
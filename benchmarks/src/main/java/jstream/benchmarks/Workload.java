@@ -0,0 +1,107 @@
+package jstream.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The Workload class generates synthetic filter and log lines for the benchmarks.
+ * Words are drawn from a vocabulary following a Zipfian distribution, so that a few terms are very frequent
+ * and most are rare, as in real logs. The same seed always produces the same lines.
+ */
+public class Workload {
+    /**
+     * Punctuation marks appended to some words of the log lines, to be removed by the normalization.
+     */
+    private static final String[] PUNCTUATION = {",", ".", "!", ":", ";"};
+
+    private final Random random;
+    /**
+     * Cumulative probability of each vocabulary rank; rank 0 is the most frequent word.
+     */
+    private final double[] cumulative;
+
+    /**
+     * Constructs a workload generator.
+     *
+     * @param seed the seed of the random generator
+     * @param vocabularySize the number of distinct words
+     * @param exponent the exponent of the Zipfian distribution; 0 draws the words uniformly
+     */
+    public Workload(long seed, int vocabularySize, double exponent) {
+        random = new Random(seed);
+        cumulative = new double[vocabularySize];
+        double sum = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) cumulative[rank] /= sum;
+    }
+
+    /**
+     * Constructs the default workload generator: 50,000 words with a Zipfian exponent of 1.1.
+     *
+     * @param seed the seed of the random generator
+     */
+    public Workload(long seed) {
+        this(seed, 50_000, 1.1);
+    }
+
+    /**
+     * Draws a word of the vocabulary.
+     *
+     * @return a lower case word
+     */
+    public String word() {
+        double p = random.nextDouble();
+        int low = 0, high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p) low = mid + 1;
+            else high = mid;
+        }
+        return "w" + Integer.toString(low, 36);
+    }
+
+    /**
+     * Generates filter description lines.
+     *
+     * @param count the number of lines
+     * @param minTerms the minimum number of terms of a filter
+     * @param maxTerms the maximum number of terms of a filter
+     * @return lines of the form "QF: term term ..."
+     */
+    public List<String> filterLines(int count, int minTerms, int maxTerms) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder("QF:");
+            int terms = minTerms + random.nextInt(maxTerms - minTerms + 1);
+            for (int t = 0; t < terms; t++) line.append(' ').append(word());
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Generates log lines with some upper case words, punctuation marks and runs of spaces.
+     *
+     * @param count the number of lines
+     * @param words the number of words of each line
+     * @return lines of the form "LOL: Word word, word ..."
+     */
+    public List<String> logLines(int count, int words) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder("LOL:");
+            for (int w = 0; w < words; w++) {
+                line.append(random.nextInt(10) == 0 ? "  " : " ");
+                String word = word();
+                line.append(random.nextInt(5) == 0 ? word.toUpperCase() : word);
+                if (random.nextInt(8) == 0) line.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;
+
+/**
+ * The AppendableSink class is a {@link ResultSink} writing the responses as text to an {@link Appendable},
+ * such as a StringBuilder or a Writer, each one followed by a line separator.
+ * Identifiers are written digit by digit and the log line straight from its characters, so no String is created.
+ */
+public class AppendableSink implements ResultSink {
+    /**
+     * The destination of the responses.
+     */
+    private final Appendable out;
+    /**
+     * The text written after each response.
+     */
+    private final String lineSeparator;
+    /**
+     * The digits of the identifier being written, filled from the end.
+     */
+    private final char[] digits;
+
+    /**
+     * Constructs an AppendableSink writing each response on its own line.
+     *
+     * @param out the destination of the responses
+     */
+    public AppendableSink(Appendable out) {
+        this(out, System.lineSeparator());
+    }
+
+    /**
+     * Constructs an AppendableSink writing the given separator after each response.
+     *
+     * @param out the destination of the responses
+     * @param lineSeparator the text written after each response; empty to write the responses back to back
+     */
+    public AppendableSink(Appendable out, String lineSeparator) {
+        this.out = out;
+        this.lineSeparator = lineSeparator;
+        digits = new char[11];
+    }
+
+    @Override
+    public void filterAdded(IFilter filter) throws IOException {
+        writeFilter("A:", filter);
+    }
+
+    @Override
+    public void filterRemoved(IFilter filter) throws IOException {
+        writeFilter("R:", filter);
+    }
+
+    @Override
+    public void filterUpdated(IFilter filter) throws IOException {
+        writeFilter("U:", filter);
+    }
+
+    @Override
+    public void lineMatched(CharSequence line, int from, int to, int[] filterIdentifiers) throws IOException {
+        out.append("M:").append(line, from, to).append("; FID=");
+        for (int i = 0; i < filterIdentifiers.length; i++) {
+            if (i > 0) out.append(", ");
+            writeInt(filterIdentifiers[i]);
+        }
+        out.append(lineSeparator);
+    }
+
+    @Override
+    public void lineUnknown(String line) throws IOException {
+        out.append(line).append(lineSeparator);
+    }
+
+    private void writeFilter(String prefix, IFilter filter) throws IOException {
+        out.append(prefix).append(filter.getTerms()).append("; FID=");
+        writeInt(filter.getFilterIdentifier());
+        out.append(lineSeparator);
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (value < 0) out.append('-');
+        int start = digits.length;
+        // Negative digits, so that Integer.MIN_VALUE needs no special case
+        int v = value < 0 ? value : -value;
+        do {
+            digits[--start] = (char) ('0' - v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start; i < digits.length; i++) out.append(digits[i]);
+    }
+}
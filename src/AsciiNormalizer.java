@@ -0,0 +1,18 @@
+/**
+ * The AsciiNormalizer interface is the block-at-a-time part of the normalization of a {@link LineTokenizer}:
+ * it folds the case of ASCII text and marks the characters splitting or dropped from the tokens, leaving the
+ * tokens themselves to be cut by the tokenizer. Implementations check many characters per instruction,
+ * see {@link VectorNormalizer}.
+ */
+public interface AsciiNormalizer {
+    /**
+     * Folds the ASCII upper case letters of a text to lower case, in place, and marks its spaces and its
+     * punctuation ({@code \p{Punct}}) characters: character i is marked by bit {@code i % 64} of {@code marks[i / 64]}.
+     *
+     * @param chars the characters of the text, folded in place
+     * @param length the number of characters of the text
+     * @param marks receives the marks, holding at least {@code (length + 63) / 64} words; bits after the text are cleared
+     * @return true if the text is ASCII, false if it holds another character, in which case the characters and marks are unspecified
+     */
+    boolean normalize(char[] chars, int length, long[] marks);
+}
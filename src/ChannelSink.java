@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ChannelSink class is a {@link ResultSink} encoding the responses in UTF-8 into a large buffer,
+ * which is written to a {@link WritableByteChannel} when full and by {@link #flush()}.
+ * Each response is followed by the line separator of the platform.
+ * ASCII characters are copied byte by byte and only the rest of a line holding other characters goes through an encoder,
+ * so responses are written without creating a String or a byte array for them.
+ */
+public class ChannelSink implements ResultSink {
+    /**
+     * The size of the output buffer.
+     */
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] FID_SEPARATOR = "; FID=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ID_SEPARATOR = ", ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The channel receiving the responses.
+     */
+    private final WritableByteChannel out;
+    /**
+     * The buffer gathering the responses before they are written to the channel.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The encoder of the non-ASCII characters; invalid characters are replaced, as by String.getBytes().
+     */
+    private final CharsetEncoder encoder;
+
+    /**
+     * Constructs a ChannelSink writing the responses to the given channel.
+     *
+     * @param out the channel receiving the responses; it is not closed by the sink
+     */
+    public ChannelSink(WritableByteChannel out) {
+        this.out = out;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public void filterAdded(IFilter filter) throws IOException {
+        writeFilter('A', filter);
+    }
+
+    @Override
+    public void filterRemoved(IFilter filter) throws IOException {
+        writeFilter('R', filter);
+    }
+
+    @Override
+    public void filterUpdated(IFilter filter) throws IOException {
+        writeFilter('U', filter);
+    }
+
+    @Override
+    public void lineMatched(CharSequence line, int from, int to, int[] filterIdentifiers) throws IOException {
+        writePrefix('M');
+        writeChars(line, from, to);
+        writeIdentifiers(filterIdentifiers);
+    }
+
+    /**
+     * Receives the response to a log line matched by at least one filter, given as the UTF-8 bytes of the line.
+     * The bytes are copied as they are, without being decoded.
+     *
+     * @param line the buffer holding the UTF-8 bytes of the log line
+     * @param from the index of the first byte of the trimmed log line, after its prefix
+     * @param to the index after the last byte of the trimmed log line
+     * @param filterIdentifiers the identifiers of the matching filters, in ascending order
+     * @throws IOException if the response cannot be written
+     */
+    public void lineMatched(ByteBuffer line, int from, int to, int[] filterIdentifiers) throws IOException {
+        writePrefix('M');
+        write(line, from, to - from);
+        writeIdentifiers(filterIdentifiers);
+    }
+
+    @Override
+    public void lineUnknown(String line) throws IOException {
+        writeChars(line, 0, line.length());
+        write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the buffered responses to the channel.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFilter(char kind, IFilter filter) throws IOException {
+        writePrefix(kind);
+        String terms = filter.getTerms();
+        writeChars(terms, 0, terms.length());
+        write(FID_SEPARATOR);
+        writeInt(filter.getFilterIdentifier());
+        write(LINE_SEPARATOR);
+    }
+
+    private void writePrefix(char kind) throws IOException {
+        if (buffer.remaining() < 2) flush();
+        buffer.put((byte) kind).put((byte) ':');
+    }
+
+    private void writeIdentifiers(int[] filterIdentifiers) throws IOException {
+        write(FID_SEPARATOR);
+        for (int i = 0; i < filterIdentifiers.length; i++) {
+            if (i > 0) write(ID_SEPARATOR);
+            writeInt(filterIdentifiers[i]);
+        }
+        write(LINE_SEPARATOR);
+    }
+
+    private void writeChars(CharSequence text, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                writeEncoded(text, i, to);
+                return;
+            }
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) c);
+        }
+    }
+
+    private void writeEncoded(CharSequence text, int from, int to) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text, from, to);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) flush();
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) flush();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) flush();
+        buffer.put(bytes);
+    }
+
+    private void write(ByteBuffer bytes, int offset, int length) throws IOException {
+        if (buffer.remaining() < length) flush();
+        if (length > buffer.capacity()) {
+            writeFully(bytes.slice(offset, length));
+            return;
+        }
+        buffer.put(buffer.position(), bytes, offset, length);
+        buffer.position(buffer.position() + length);
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (buffer.remaining() < 11) flush();
+        if (value < 0) buffer.put((byte) '-');
+        int digits = 1;
+        for (int v = value; v <= -10 || v >= 10; v /= 10) digits++;
+        int end = buffer.position() + digits;
+        // Negative digits, so that Integer.MIN_VALUE needs no special case
+        int v = value < 0 ? value : -value;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' - v % 10));
+            v /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) out.write(bytes);
+    }
+}
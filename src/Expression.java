@@ -0,0 +1,272 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The Expression class represents a boolean expression over filter terms, such as {@code error AND (disk OR io) AND NOT test}.
+ * An expression is parsed once from the text of a filter line and is immutable. It is evaluated by the predicate
+ * compiled for it by an {@link ExpressionTable}; evaluating the tree itself is only done against a set of Strings.
+ * <p>
+ * The grammar is:
+ * <pre>
+ * &lt;Expression&gt; ::= &lt;And&gt; | &lt;And&gt; "OR" &lt;Expression&gt;
+ *        &lt;And&gt; ::= &lt;Unary&gt; | &lt;Unary&gt; "AND" &lt;And&gt; | &lt;Unary&gt; &lt;And&gt;
+ *      &lt;Unary&gt; ::= "NOT" &lt;Unary&gt; | "(" &lt;Expression&gt; ")" | &lt;Term&gt;
+ * </pre>
+ * Operators are upper case words; terms are normalized like the terms of a {@link FilterMatchAll},
+ * and terms next to each other are a conjunction, as in a plain filter line.
+ */
+public class Expression {
+    /**
+     * The kinds of expression nodes.
+     */
+    enum Kind { TERM, AND, OR, NOT }
+
+    final Kind kind;
+    /**
+     * The normalized term of a {@link Kind#TERM} node; null otherwise.
+     */
+    final String term;
+    /**
+     * The operands of an {@link Kind#AND}, {@link Kind#OR} or {@link Kind#NOT} node; empty for a term.
+     * Nested operands of the same kind are flattened, e.g. {@code a AND (b AND c)} has three operands.
+     */
+    final Expression[] operands;
+
+    private Expression(Kind kind, String term, Expression[] operands) {
+        this.kind = kind;
+        this.term = term;
+        this.operands = operands;
+    }
+
+    /**
+     * Tells whether a filter string is an expression: it joins two operands with one of the operators AND and OR,
+     * and is valid as a whole. Other filter strings are plain conjunctions of terms, as they were before expressions
+     * were supported: in "foo(bar)" the parentheses are punctuation, and "NOT FOUND" is the two terms "not" and "found".
+     *
+     * @param filterString the text of a filter line, without its prefix
+     * @return true if the filter string should be parsed as an expression
+     */
+    public static boolean isExpression(String filterString) {
+        List<String> tokens = tokenize(filterString);
+        boolean binary = false;
+        for (int i = 1; i + 1 < tokens.size() && !binary; i++) {
+            String token = tokens.get(i);
+            if (!token.equals("AND") && !token.equals("OR")) continue;
+            String before = tokens.get(i - 1), after = tokens.get(i + 1);
+            binary = !isOperator(before) && !before.equals("(") && !after.equals("AND") && !after.equals("OR") && !after.equals(")");
+        }
+        if (!binary) return false;
+        try {
+            parse(filterString);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isOperator(String token) {
+        return token.equals("AND") || token.equals("OR") || token.equals("NOT");
+    }
+
+    /**
+     * Parses an expression.
+     *
+     * @param filterString the text of a filter line, without its prefix
+     * @return the parsed expression
+     * @throws IllegalArgumentException if the text is not a valid expression, e.g. if a parenthesis is not closed
+     */
+    public static Expression parse(String filterString) {
+        List<String> tokens = tokenize(filterString);
+        Parser parser = new Parser(tokens);
+        Expression ret = parser.expression();
+        if (parser.position < tokens.size())
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(parser.position) + "' in expression: " + filterString);
+        return ret;
+    }
+
+    /**
+     * Splits the text of an expression into its operators, parentheses and normalized terms.
+     */
+    private static List<String> tokenize(String filterString) {
+        List<String> tokens = new ArrayList<>();
+        LineTokenizer tokenizer = new LineTokenizer();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= filterString.length(); i++) {
+            char c = i < filterString.length() ? filterString.charAt(i) : ' ';
+            if (c == ' ' || c == '(' || c == ')') {
+                if (word.length() > 0) {
+                    String aWord = word.toString();
+                    if (isOperator(aWord)) {
+                        tokens.add(aWord);
+                    } else {
+                        // A word made of punctuation only is dropped, as in a plain filter line
+                        String aTerm = tokenizer.split(aWord)[0];
+                        if (!aTerm.isEmpty()) tokens.add(aTerm);
+                    }
+                    word.setLength(0);
+                }
+                if (c != ' ') tokens.add(String.valueOf(c));
+            } else {
+                word.append(c);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A recursive descent parser over the tokens of an expression. Terms are lower case, so they never collide with operators.
+     */
+    private static final class Parser {
+        final List<String> tokens;
+        int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        Expression expression() {
+            List<Expression> operands = new ArrayList<>();
+            operands.add(and());
+            while (accept("OR")) operands.add(and());
+            return combine(Kind.OR, operands);
+        }
+
+        Expression and() {
+            List<Expression> operands = new ArrayList<>();
+            operands.add(unary());
+            while (position < tokens.size() && !tokens.get(position).equals("OR") && !tokens.get(position).equals(")")) {
+                accept("AND");
+                operands.add(unary());
+            }
+            return combine(Kind.AND, operands);
+        }
+
+        Expression unary() {
+            if (position == tokens.size()) throw new IllegalArgumentException("Missing term at the end of expression");
+            String token = tokens.get(position++);
+            switch (token) {
+                case "NOT":
+                    return new Expression(Kind.NOT, null, new Expression[]{unary()});
+                case "(":
+                    Expression ret = expression();
+                    if (!accept(")")) throw new IllegalArgumentException("Missing ')' in expression");
+                    return ret;
+                case "AND":
+                case "OR":
+                case ")":
+                    throw new IllegalArgumentException("Unexpected '" + token + "' in expression");
+                default:
+                    return new Expression(Kind.TERM, token, new Expression[0]);
+            }
+        }
+
+        boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private static Expression combine(Kind kind, List<Expression> operands) {
+            if (operands.size() == 1) return operands.get(0);
+            List<Expression> flat = new ArrayList<>();
+            for (Expression operand : operands) {
+                if (operand.kind == kind) flat.addAll(Arrays.asList(operand.operands));
+                else flat.add(operand);
+            }
+            return new Expression(kind, null, flat.toArray(new Expression[0]));
+        }
+    }
+
+    /**
+     * Evaluates the expression against a set of normalized tokens.
+     *
+     * @param line a HashSet containing the tokens of a normalized line
+     * @return true if the line satisfies the expression
+     */
+    public boolean evaluate(HashSet<String> line) {
+        switch (kind) {
+            case TERM:
+                return line.contains(term);
+            case NOT:
+                return !operands[0].evaluate(line);
+            case AND:
+                for (Expression operand : operands)
+                    if (!operand.evaluate(line)) return false;
+                return true;
+            default:
+                for (Expression operand : operands)
+                    if (operand.evaluate(line)) return true;
+                return false;
+        }
+    }
+
+    /**
+     * Collects the terms which every line satisfying the expression must contain.
+     *
+     * @param ret the set receiving the required terms
+     */
+    void requiredTerms(HashSet<String> ret) {
+        switch (kind) {
+            case TERM:
+                ret.add(term);
+                break;
+            case AND:
+                for (Expression operand : operands) operand.requiredTerms(ret);
+                break;
+            case OR:
+                // Only the terms required by all alternatives
+                HashSet<String> common = null;
+                for (Expression operand : operands) {
+                    HashSet<String> terms = new HashSet<>();
+                    operand.requiredTerms(terms);
+                    if (common == null) common = terms;
+                    else common.retainAll(terms);
+                }
+                ret.addAll(common);
+                break;
+            default:
+                // A negation requires nothing
+        }
+    }
+
+    /**
+     * Formats the expression with upper case operators, single spaces, and parentheses only where they are needed.
+     *
+     * @return the normalized text of the expression, e.g. {@code error AND (disk OR io) AND NOT test}
+     */
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        format(ret);
+        return ret.toString();
+    }
+
+    private void format(StringBuilder ret) {
+        switch (kind) {
+            case TERM:
+                ret.append(term);
+                break;
+            case NOT:
+                ret.append("NOT ");
+                formatOperand(operands[0], ret);
+                break;
+            default:
+                for (int i = 0; i < operands.length; i++) {
+                    if (i > 0) ret.append(kind == Kind.AND ? " AND " : " OR ");
+                    formatOperand(operands[i], ret);
+                }
+        }
+    }
+
+    private void formatOperand(Expression operand, StringBuilder ret) {
+        // Operands of the same kind were flattened, so only an OR within an AND or a NOT, or an AND within a NOT, needs parentheses
+        boolean grouped = (operand.kind == Kind.OR && kind != Kind.OR) || (operand.kind == Kind.AND && kind == Kind.NOT);
+        if (grouped) ret.append('(');
+        operand.format(ret);
+        if (grouped) ret.append(')');
+    }
+}
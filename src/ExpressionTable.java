@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The ExpressionTable class compiles {@link Expression}s into predicates over the term identifiers of a log line,
+ * composed of lambdas specialized for each kind of node: a conjunction or disjunction of plain terms becomes a loop
+ * over an int array, and other nodes call the predicates of their operands directly.
+ * <p>
+ * Subexpressions are shared by all the filters compiled by one table: each distinct operator node, whatever the
+ * order of its operands, gets one node identifier, and its value is memoized in the {@link LineTerms} of the line
+ * being matched. A subexpression common to many filters is then evaluated once per line.
+ * <p>
+ * With {@link TermStatistics}, the operands of each node are ordered by cost and selectivity: the operands of a
+ * conjunction most likely to be false for their cost come first, and those of a disjunction most likely to be true.
+ * <p>
+ * The table is safe for concurrent use: compiling takes a lock, while the compiled predicates never do.
+ */
+public class ExpressionTable {
+    /**
+     * The estimated probability of a term or a node without statistics.
+     */
+    private static final double UNKNOWN_PROBABILITY = 0.5;
+
+    /**
+     * A compiled expression: its predicate, the estimated probability that a line satisfies it,
+     * and the expected number of term probes of one evaluation.
+     */
+    static final class Compiled {
+        final Predicate<LineTerms> predicate;
+        final double probability;
+        final double cost;
+
+        Compiled(Predicate<LineTerms> predicate, double probability, double cost) {
+            this.predicate = predicate;
+            this.probability = probability;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * The dictionary interning the terms of the expressions, shared with the log lines.
+     */
+    private final TermDictionary dictionary;
+    /**
+     * The node identifier of each distinct operator node, by canonical text.
+     */
+    private final Map<String, Integer> nodes;
+
+    /**
+     * Constructs an empty table compiling expressions over the terms of the given dictionary.
+     *
+     * @param dictionary the term dictionary shared by the filters and the log lines
+     */
+    public ExpressionTable(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+        nodes = new HashMap<>();
+    }
+
+    /**
+     * Compiles an expression into a predicate over the terms of a line.
+     *
+     * @param expression the expression to be compiled
+     * @param statistics the estimated frequencies of the terms ordering the operands, or null to keep the written order
+     * @return the compiled expression
+     */
+    public synchronized Compiled compile(Expression expression, TermStatistics statistics) {
+        return compile(expression, statistics, new StringBuilder());
+    }
+
+    /**
+     * Retrieves the number of distinct operator nodes compiled so far.
+     *
+     * @return the number of shared subexpressions
+     */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Compiles a node and appends its canonical text, which does not depend on the order of the operands.
+     */
+    private Compiled compile(Expression expression, TermStatistics statistics, StringBuilder key) {
+        switch (expression.kind) {
+            case TERM: {
+                int termId = dictionary.intern(expression.term);
+                key.append(termId);
+                double probability = statistics == null ? UNKNOWN_PROBABILITY : statistics.frequency(termId);
+                return new Compiled(line -> line.contains(termId), probability, 1);
+            }
+            case NOT: {
+                key.append('!');
+                Compiled operand = compile(expression.operands[0], statistics, key);
+                Predicate<LineTerms> predicate = operand.predicate;
+                return new Compiled(line -> !predicate.test(line), 1 - operand.probability, operand.cost);
+            }
+            default:
+                return compileOperator(expression, statistics, key);
+        }
+    }
+
+    /**
+     * Compiles a conjunction or a disjunction, orders its operands and memoizes its value.
+     */
+    private Compiled compileOperator(Expression expression, TermStatistics statistics, StringBuilder key) {
+        boolean and = expression.kind == Expression.Kind.AND;
+        int count = expression.operands.length;
+        Compiled[] operands = new Compiled[count];
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder operandKey = new StringBuilder();
+            operands[i] = compile(expression.operands[i], statistics, operandKey);
+            keys[i] = operandKey.toString();
+        }
+        String[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        String nodeKey = (and ? "&(" : "|(") + String.join(",", sortedKeys) + ")";
+        key.append(nodeKey);
+        int node = nodes.computeIfAbsent(nodeKey, k -> nodes.size());
+
+        if (statistics != null) {
+            // A conjunction stops at the first false operand, a disjunction at the first true one:
+            // the operand with the lowest cost per chance of stopping goes first
+            Arrays.sort(operands, Comparator.comparingDouble(operand ->
+                    operand.cost / Math.max(1e-9, and ? 1 - operand.probability : operand.probability)));
+        }
+        double probability = 1;
+        double cost = 0;
+        for (Compiled operand : operands) {
+            double reached = and ? probability : 1 - probability;
+            cost += reached * operand.cost;
+            probability = and ? probability * operand.probability : 1 - (1 - probability) * (1 - operand.probability);
+        }
+        Predicate<LineTerms> evaluation = and ? and(operands, expression, statistics) : or(operands, expression, statistics);
+        Predicate<LineTerms> predicate = line -> {
+            int memo = line.memo(node);
+            if (memo >= 0) return memo == 1;
+            boolean ret = evaluation.test(line);
+            line.memoize(node, ret);
+            return ret;
+        };
+        return new Compiled(predicate, probability, cost);
+    }
+
+    private Predicate<LineTerms> and(Compiled[] operands, Expression expression, TermStatistics statistics) {
+        int[] termIds = plainTerms(expression, statistics);
+        if (termIds != null) {
+            return line -> {
+                for (int termId : termIds)
+                    if (!line.contains(termId)) return false;
+                return true;
+            };
+        }
+        if (operands.length == 2) {
+            Predicate<LineTerms> first = operands[0].predicate, second = operands[1].predicate;
+            return line -> first.test(line) && second.test(line);
+        }
+        Predicate<LineTerms>[] predicates = predicates(operands);
+        return line -> {
+            for (Predicate<LineTerms> predicate : predicates)
+                if (!predicate.test(line)) return false;
+            return true;
+        };
+    }
+
+    private Predicate<LineTerms> or(Compiled[] operands, Expression expression, TermStatistics statistics) {
+        int[] termIds = plainTerms(expression, statistics);
+        if (termIds != null) {
+            return line -> {
+                for (int termId : termIds)
+                    if (line.contains(termId)) return true;
+                return false;
+            };
+        }
+        if (operands.length == 2) {
+            Predicate<LineTerms> first = operands[0].predicate, second = operands[1].predicate;
+            return line -> first.test(line) || second.test(line);
+        }
+        Predicate<LineTerms>[] predicates = predicates(operands);
+        return line -> {
+            for (Predicate<LineTerms> predicate : predicates)
+                if (predicate.test(line)) return true;
+            return false;
+        };
+    }
+
+    /**
+     * Retrieves the term identifiers of the operands in their evaluation order if all of them are plain terms.
+     *
+     * @return the term identifiers, or null if an operand is not a term
+     */
+    private int[] plainTerms(Expression expression, TermStatistics statistics) {
+        for (Expression operand : expression.operands)
+            if (operand.kind != Expression.Kind.TERM) return null;
+        int[] ret = Arrays.stream(expression.operands).mapToInt(operand -> dictionary.intern(operand.term)).toArray();
+        if (statistics == null) return ret;
+        ret = statistics.rarestFirst(ret);
+        if (expression.kind == Expression.Kind.OR) {
+            // A disjunction probes its most frequent term first
+            for (int i = 0, j = ret.length - 1; i < j; i++, j--) {
+                int termId = ret[i];
+                ret[i] = ret[j];
+                ret[j] = termId;
+            }
+        }
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Predicate<LineTerms>[] predicates(Compiled[] operands) {
+        return Arrays.stream(operands).map(operand -> operand.predicate).toArray(Predicate[]::new);
+    }
+}
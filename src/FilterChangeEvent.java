@@ -0,0 +1,24 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The FilterChangeEvent class is the JFR event recorded for each filter added, removed or updated while the metrics
+ * of a {@link StreamFilter} are enabled. Its duration covers the update of the filters and of the index.
+ */
+@Name("jstream.FilterChange")
+@Label("Filter Change")
+@Category("Stream Filter")
+@Description("A filter added, removed or updated")
+public class FilterChangeEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("QF for an added filter, RF for a removed one, UF for an updated one")
+    String operation;
+
+    @Label("Filter Identifier")
+    int filterIdentifier;
+
+    @Label("Filter Terms")
+    String terms;
+}
@@ -0,0 +1,120 @@
+import java.util.HashSet;
+
+/**
+ * The FilterExpression class is an implementation of the IFilter interface for boolean expressions over terms,
+ * such as {@code error AND (disk OR io) AND NOT test}; see {@link Expression} for the syntax.
+ * The expression is parsed once and compiled by an {@link ExpressionTable} into a predicate over the term identifiers
+ * of a line, which shares the subexpressions of the other expression filters compiled by the same table.
+ */
+public class FilterExpression implements IFilter {
+    /**
+     * The unique identifier of the filter.
+     */
+    int filterIdentifier;
+    /**
+     * The parsed expression of the filter.
+     */
+    Expression expression;
+    /**
+     * The table compiling the expression, shared by all the expression filters matched against the same lines.
+     */
+    ExpressionTable table;
+    /**
+     * The compiled expression, replaced as a whole when the filter is reordered.
+     */
+    volatile ExpressionTable.Compiled compiled;
+    /**
+     * The union of the signature bits of the terms every matching line contains, see {@link LineTerms#signatureBit(int)}.
+     * A line whose signature misses one of these bits is rejected without evaluating the expression.
+     */
+    long requiredSignature;
+    /**
+     * The distinct identifiers of the terms every matching line contains, ascending at first, then rarest first once
+     * {@link #optimize(TermStatistics)} was called; empty when a line may match without any given term, e.g. with OR or NOT.
+     * The {@link InvertedIndex} only evaluates the expression against the lines holding one of them.
+     * The array is replaced as a whole when the filter is reordered, and always holds the same identifiers.
+     */
+    volatile int[] requiredTermIds;
+
+    /**
+     * Constructs a FilterExpression by parsing and compiling the given filter string.
+     *
+     * @param filterIdentifier an integer representing the unique identifier of the filter
+     * @param filterString the text of the expression
+     * @param table the table compiling the expressions of the filters, over the term dictionary shared with the log lines
+     * @param dictionary the term dictionary of the table
+     * @throws IllegalArgumentException if the filter string is not a valid expression
+     */
+    public FilterExpression(int filterIdentifier, String filterString, ExpressionTable table, TermDictionary dictionary) {
+        this.filterIdentifier = filterIdentifier;
+        this.table = table;
+        expression = Expression.parse(filterString);
+        compiled = table.compile(expression, null);
+        HashSet<String> required = new HashSet<>();
+        expression.requiredTerms(required);
+        requiredTermIds = required.stream().mapToInt(dictionary::intern).distinct().sorted().toArray();
+        for (int termId : requiredTermIds) requiredSignature |= LineTerms.signatureBit(termId);
+    }
+
+    @Override
+    public int getFilterIdentifier() {
+        return filterIdentifier;
+    }
+
+    /**
+     * Evaluates the expression against a set of terms.
+     *
+     * @param line a HashSet containing the set of terms to be evaluated
+     * @return true if the terms satisfy the expression, false otherwise
+     */
+    @Override
+    public boolean doMatch(HashSet<String> line) {
+        return expression.evaluate(line);
+    }
+
+    /**
+     * Evaluates the compiled expression against the provided line terms.
+     *
+     * @param line the term identifiers of a normalized line to be evaluated
+     * @return true if the line satisfies the expression, false otherwise
+     */
+    @Override
+    public boolean doMatch(LineTerms line) {
+        if ((requiredSignature & ~line.getSignature()) != 0) return false;
+        return compiled.predicate.test(line);
+    }
+
+    /**
+     * Recompiles the expression so that the operands most likely to decide each node are evaluated first,
+     * and orders its required terms rarest first.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     */
+    @Override
+    public void optimize(TermStatistics statistics) {
+        compiled = table.compile(expression, statistics);
+        requiredTermIds = statistics.rarestFirst(requiredTermIds);
+    }
+
+    /**
+     * Estimates the number of terms probed by one evaluation of the expression in its current order,
+     * as estimated when it was last compiled.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     * @return the expected number of term probes
+     */
+    @Override
+    public double estimateCost(TermStatistics statistics) {
+        return compiled.cost;
+    }
+
+    /**
+     * Retrieves the normalized text of the expression, with upper case operators and only the needed parentheses.
+     *
+     * @return the text of the expression, e.g. {@code error AND (disk OR io) AND NOT test}
+     */
+    @Override
+    public String getTerms() {
+        return expression.toString();
+    }
+}
@@ -1,5 +1,5 @@
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.stream.Stream;
 
 /**
  * The FilterMatchAll class is an implementation of the IFilter interface.
@@ -24,18 +24,60 @@ public class FilterMatchAll implements IFilter {
      * The presence of all terms in the input set indicates a match for the filter.
      */
     String[] filterTerms;
+    /**
+     * Represents the distinct terms of the filter as identifiers of a {@link TermDictionary}, in probing order:
+     * ascending at first, then rarest first once {@link #optimize(TermStatistics)} was called.
+     * These identifiers are used when matching against the {@link LineTerms} of a log line,
+     * so that no String is hashed on the matching path.
+     * The array is replaced as a whole when the filter is reordered, and always holds the same identifiers.
+     */
+    volatile int[] termIds;
 
     /**
      * Constructs a FilterMatchAll instance with the specified filter identifier and filter string.
      * The filter identifier uniquely distinguishes the filter, and the filter string defines
      * the terms against which the filter will evaluate matches.
+     * The terms are interned into a private term dictionary.
      *
      * @param filterIdentifier an integer representing the unique identifier of the filter
      * @param filterString a string containing the terms used by the filter, separated by spaces
      */
     public FilterMatchAll(int filterIdentifier, String filterString) {
+        this(filterIdentifier, filterString, new TermDictionary());
+    }
+
+    /**
+     * Constructs a FilterMatchAll instance with the specified filter identifier and filter string,
+     * interning its terms into the given term dictionary.
+     * Log lines must be translated with the same dictionary to be matched by {@link #doMatch(LineTerms)}.
+     *
+     * @param filterIdentifier an integer representing the unique identifier of the filter
+     * @param filterString a string containing the terms used by the filter, separated by spaces
+     * @param dictionary the term dictionary shared by the filters and the log lines
+     */
+    public FilterMatchAll(int filterIdentifier, String filterString, TermDictionary dictionary) {
         this.filterIdentifier = filterIdentifier;
         buildFilterTerms(filterString);
+        buildTermIds(dictionary);
+    }
+
+    /**
+     * Constructs a FilterMatchAll instance from terms which were already normalized and interned,
+     * e.g. when the filters are loaded from a {@link FilterSnapshot}.
+     *
+     * @param filterIdentifier an integer representing the unique identifier of the filter
+     * @param filterTerms the normalized terms of the filter, in the order of the filter string
+     * @param wordIds the identifier of each of the filter terms in the term dictionary shared with the log lines
+     */
+    FilterMatchAll(int filterIdentifier, String[] filterTerms, int[] wordIds) {
+        this.filterIdentifier = filterIdentifier;
+        this.filterTerms = filterTerms;
+        int[] sorted = wordIds.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[count++] = sorted[i];
+        termIds = (count == sorted.length ? sorted : Arrays.copyOf(sorted, count));
     }
 
     /**
@@ -65,6 +107,45 @@ public class FilterMatchAll implements IFilter {
         return match;
     }
 
+    /**
+     * Evaluates whether all filter terms defined by this filter are present in the provided line terms.
+     * A match is achieved only if the entire set of filter term identifiers is found in the input.
+     *
+     * @param line the term identifiers of a normalized line to be evaluated
+     * @return true if all filter terms are present in the given line, false otherwise
+     */
+    @Override
+    public boolean doMatch(LineTerms line) {
+        int[] ids = termIds;
+        int i;
+        boolean match = true;
+        for(i=0;match && i<ids.length;i++)
+            match = line.contains(ids[i]);
+        return match;
+    }
+
+    /**
+     * Reorders the term identifiers rarest first, so that the first probe of {@link #doMatch(LineTerms)} fails as often as possible.
+     * A filter added to the {@link InvertedIndex} afterwards has the extra terms of its lattice slot probed in this order.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     */
+    @Override
+    public void optimize(TermStatistics statistics) {
+        termIds = statistics.rarestFirst(termIds);
+    }
+
+    /**
+     * Estimates the number of term identifiers probed by one evaluation of {@link #doMatch(LineTerms)} in the current order.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     * @return the expected number of term probes
+     */
+    @Override
+    public double estimateCost(TermStatistics statistics) {
+        return statistics.expectedProbes(termIds);
+    }
+
     /**
      * Constructs a space-separated string from the filter terms associated with the filter.
      * If there are no filter terms, an empty string is returned.
@@ -84,17 +165,22 @@ public class FilterMatchAll implements IFilter {
 
     /**
      * Processes the provided filter string to populate the filter terms.
-     * The input string is normalized by trimming whitespace, converting to lowercase,
-     * and splitting the words based on spaces to create an array of terms.
+     * The input string is normalized by the same {@link LineTokenizer} as the log lines: punctuation is removed,
+     * the words are split based on whitespace and converted to lowercase to create an array of terms.
      *
      * @param filterString the raw filter string that defines the terms for the filter
      */
     private void buildFilterTerms(String filterString){
-        // Normalize the filter string
-        String normalizeFilterString = filterString.trim().toLowerCase();
-        // Tokenize the normalized filter string and store the terms in an array
-        filterTerms = normalizeFilterString.split("\s+");
-        for(int i=0;i<filterTerms.length;i++) filterTerms[i] = filterTerms[i].trim();
-        //Stream.of(filterTerms).forEach(x->System.out.println("|"+x+"|"));
+        // Normalize and tokenize the filter string and store the terms in an array
+        filterTerms = new LineTokenizer().split(filterString);
+    }
+
+    /**
+     * Interns the filter terms into the given dictionary and stores their distinct identifiers in ascending order.
+     *
+     * @param dictionary the term dictionary shared by the filters and the log lines
+     */
+    private void buildTermIds(TermDictionary dictionary){
+        termIds = Arrays.stream(filterTerms).mapToInt(dictionary::intern).distinct().sorted().toArray();
     }
 }
@@ -0,0 +1,233 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The FilterMetrics class collects the metrics of a {@link StreamFilter}: line and match counters, the time spent
+ * tokenizing and matching log lines, latency histograms and the number of evaluations and hits of each filter.
+ * While they are enabled, {@link LogLineEvent} and {@link FilterChangeEvent} JFR events are recorded as well.
+ * <p>
+ * The metrics are disabled by default. When they are, the instrumented code only reads the volatile {@link #enabled}
+ * flag and takes no time stamp. Counters are {@link LongAdder}s, so threads processing lines concurrently do not
+ * contend on them. The values can be read at any time with {@link #snapshot()}, or through JMX once {@link #register(String)}ed.
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+    /**
+     * The evaluation and hit counters of one filter.
+     */
+    private static final class FilterCounters {
+        final LongAdder evaluations = new LongAdder();
+        final LongAdder hits = new LongAdder();
+    }
+
+    /**
+     * Whether the metrics are being collected; read by the instrumented code before taking any measure.
+     */
+    volatile boolean enabled;
+
+    private final LongAdder logLines;
+    private final LongAdder matchedLines;
+    private final LongAdder filterChanges;
+    private final LongAdder reportedMatches;
+    private final LongAdder tokenizeNanos;
+    private final LatencyHistogram lineLatency;
+    private final LatencyHistogram matchLatency;
+    /**
+     * The counters of each filter, by filter identifier; a filter gets its counters when it is first evaluated.
+     */
+    private final Map<Integer, FilterCounters> filterCounters;
+
+    /**
+     * Constructs disabled metrics with all values at zero.
+     */
+    public FilterMetrics() {
+        logLines = new LongAdder();
+        matchedLines = new LongAdder();
+        filterChanges = new LongAdder();
+        reportedMatches = new LongAdder();
+        tokenizeNanos = new LongAdder();
+        lineLatency = new LatencyHistogram();
+        matchLatency = new LatencyHistogram();
+        filterCounters = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under the name "jstream:type=StreamFilter,name=" followed by the given name.
+     *
+     * @param name the name distinguishing this StreamFilter from the others of the JVM
+     * @return the name under which the metrics are registered
+     * @throws JMException if the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("jstream:type=StreamFilter,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Takes a snapshot of all the metrics.
+     *
+     * @return the current values of the metrics
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(System.nanoTime(), logLines.sum(), matchedLines.sum(), filterChanges.sum(),
+                reportedMatches.sum(), tokenizeNanos.sum(), matchLatency.getTotalNanos(),
+                lineLatency.counts(), matchLatency.counts(), getFilterEvaluations(), getFilterHits());
+    }
+
+    /**
+     * Counts a log line which was tokenized and matched.
+     *
+     * @param tokenizeNanos the time spent tokenizing the line
+     * @param lineNanos the time spent tokenizing and matching the line
+     * @param matches the number of filters matching the line
+     */
+    void recordLogLine(long tokenizeNanos, long lineNanos, int matches) {
+        logLines.increment();
+        if (matches > 0) {
+            matchedLines.increment();
+            reportedMatches.add(matches);
+        }
+        this.tokenizeNanos.add(tokenizeNanos);
+        lineLatency.record(lineNanos);
+    }
+
+    /**
+     * Counts the time spent matching a tokenized log line.
+     *
+     * @param nanos the time spent matching the line
+     */
+    void recordMatch(long nanos) {
+        matchLatency.record(nanos);
+    }
+
+    /**
+     * Counts a filter added, removed or updated.
+     */
+    void recordFilterChange() {
+        filterChanges.increment();
+    }
+
+    /**
+     * Counts the evaluation of a filter against a log line.
+     *
+     * @param filterIdentifier the identifier of the filter
+     */
+    void filterEvaluated(int filterIdentifier) {
+        counters(filterIdentifier).evaluations.increment();
+    }
+
+    /**
+     * Counts a log line matched by a filter.
+     *
+     * @param filterIdentifier the identifier of the filter
+     */
+    void filterHit(int filterIdentifier) {
+        counters(filterIdentifier).hits.increment();
+    }
+
+    /**
+     * Drops the counters of a removed filter.
+     *
+     * @param filterIdentifier the identifier of the filter
+     */
+    void filterRemoved(int filterIdentifier) {
+        filterCounters.remove(filterIdentifier);
+    }
+
+    /**
+     * Hands the counters of a filter to other metrics, e.g. when the filter moves to another shard.
+     *
+     * @param filterIdentifier the identifier of the filter
+     * @param target the metrics counting the filter from now on
+     */
+    void filterMoved(int filterIdentifier, FilterMetrics target) {
+        if (target == this) return;
+        FilterCounters counters = filterCounters.remove(filterIdentifier);
+        if (counters != null) target.filterCounters.put(filterIdentifier, counters);
+    }
+
+    @Override
+    public long getLogLines() {
+        return logLines.sum();
+    }
+
+    @Override
+    public long getMatchedLines() {
+        return matchedLines.sum();
+    }
+
+    @Override
+    public long getFilterChanges() {
+        return filterChanges.sum();
+    }
+
+    @Override
+    public long getReportedMatches() {
+        return reportedMatches.sum();
+    }
+
+    @Override
+    public long getTokenizeNanos() {
+        return tokenizeNanos.sum();
+    }
+
+    @Override
+    public long getMatchNanos() {
+        return matchLatency.getTotalNanos();
+    }
+
+    @Override
+    public long getLineLatencyP50() {
+        return LatencyHistogram.percentile(lineLatency.counts(), 0.5);
+    }
+
+    @Override
+    public long getLineLatencyP99() {
+        return LatencyHistogram.percentile(lineLatency.counts(), 0.99);
+    }
+
+    @Override
+    public long getMatchLatencyP50() {
+        return LatencyHistogram.percentile(matchLatency.counts(), 0.5);
+    }
+
+    @Override
+    public long getMatchLatencyP99() {
+        return LatencyHistogram.percentile(matchLatency.counts(), 0.99);
+    }
+
+    @Override
+    public Map<Integer, Long> getFilterEvaluations() {
+        Map<Integer, Long> ret = new HashMap<>();
+        filterCounters.forEach((id, counters) -> ret.put(id, counters.evaluations.sum()));
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<Integer, Long> getFilterHits() {
+        Map<Integer, Long> ret = new HashMap<>();
+        filterCounters.forEach((id, counters) -> ret.put(id, counters.hits.sum()));
+        return Collections.unmodifiableMap(ret);
+    }
+
+    private FilterCounters counters(int filterIdentifier) {
+        FilterCounters ret = filterCounters.get(filterIdentifier);
+        return ret != null ? ret : filterCounters.computeIfAbsent(filterIdentifier, id -> new FilterCounters());
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Map;
+
+/**
+ * The FilterMetricsMXBean interface exposes the {@link FilterMetrics} of a {@link StreamFilter} through JMX.
+ * Counters start when the metrics are enabled; durations are in nanoseconds.
+ */
+public interface FilterMetricsMXBean {
+    /**
+     * Tells whether the metrics are being collected.
+     *
+     * @return true if the metrics are enabled
+     */
+    public boolean isEnabled();
+
+    /**
+     * Starts or stops collecting the metrics. The values collected so far are kept.
+     *
+     * @param enabled true to collect the metrics
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Retrieves the number of log lines processed.
+     *
+     * @return the number of log lines processed
+     */
+    public long getLogLines();
+
+    /**
+     * Retrieves the number of log lines matched by at least one filter.
+     *
+     * @return the number of log lines matched by at least one filter
+     */
+    public long getMatchedLines();
+
+    /**
+     * Retrieves the number of filters added, removed or updated.
+     *
+     * @return the number of filters added, removed or updated
+     */
+    public long getFilterChanges();
+
+    /**
+     * Retrieves the number of filter identifiers reported for the matched log lines.
+     *
+     * @return the number of filter identifiers reported for the matched log lines
+     */
+    public long getReportedMatches();
+
+    /**
+     * Retrieves the total time spent tokenizing log lines.
+     *
+     * @return the total time spent tokenizing log lines
+     */
+    public long getTokenizeNanos();
+
+    /**
+     * Retrieves the total time spent matching tokenized log lines against the filters.
+     *
+     * @return the total time spent matching tokenized log lines against the filters
+     */
+    public long getMatchNanos();
+
+    /**
+     * Retrieves the estimated median time of processing (tokenizing and matching) a log line.
+     *
+     * @return the estimated median time of processing (tokenizing and matching) a log line
+     */
+    public long getLineLatencyP50();
+
+    /**
+     * Retrieves the estimated 99th percentile of the time of processing (tokenizing and matching) a log line.
+     *
+     * @return the estimated 99th percentile of the time of processing (tokenizing and matching) a log line
+     */
+    public long getLineLatencyP99();
+
+    /**
+     * Retrieves the estimated median time of matching a tokenized log line.
+     *
+     * @return the estimated median time of matching a tokenized log line
+     */
+    public long getMatchLatencyP50();
+
+    /**
+     * Retrieves the estimated 99th percentile of the time of matching a tokenized log line.
+     *
+     * @return the estimated 99th percentile of the time of matching a tokenized log line
+     */
+    public long getMatchLatencyP99();
+
+    /**
+     * Retrieves the number of times each filter was evaluated, by filter identifier.
+     *
+     * @return the number of times each filter was evaluated, by filter identifier
+     */
+    public Map<Integer, Long> getFilterEvaluations();
+
+    /**
+     * Retrieves the number of log lines each filter matched, by filter identifier.
+     *
+     * @return the number of log lines each filter matched, by filter identifier
+     */
+    public Map<Integer, Long> getFilterHits();
+}
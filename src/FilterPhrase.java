@@ -0,0 +1,80 @@
+import java.util.HashSet;
+
+/**
+ * The FilterPhrase class is an implementation of the {@link IPatternFilter} interface.
+ * It represents a filter that matches a log line containing its terms consecutively and in the given order,
+ * e.g. the phrase "disk full" matches "the disk full again" but neither "full disk" nor "disk is full".
+ * Terms are normalized like the terms of a {@link FilterMatchAll}.
+ */
+public class FilterPhrase implements IPatternFilter {
+    /**
+     * The unique identifier of the filter.
+     */
+    int filterIdentifier;
+    /**
+     * The normalized terms of the phrase, in order.
+     */
+    String[] filterTerms;
+    /**
+     * The single pattern of the phrase: its terms between spaces.
+     */
+    String[] patterns;
+
+    /**
+     * Constructs a FilterPhrase instance with the specified filter identifier and phrase.
+     *
+     * @param filterIdentifier an integer representing the unique identifier of the filter
+     * @param filterString a string containing the terms of the phrase in order, separated by spaces
+     */
+    public FilterPhrase(int filterIdentifier, String filterString) {
+        this.filterIdentifier = filterIdentifier;
+        filterTerms = new LineTokenizer().split(filterString);
+        patterns = new String[]{" " + String.join(" ", filterTerms) + " "};
+    }
+
+    /**
+     * Retrieves the unique identifier of this filter.
+     *
+     * @return the unique integer identifier of the filter
+     */
+    @Override
+    public int getFilterIdentifier() {
+        return filterIdentifier;
+    }
+
+    /**
+     * Evaluates whether the provided set of terms holds every term of the phrase.
+     * A set has lost the order and the adjacency of the tokens, so this only checks what every matching line satisfies:
+     * it may accept a set whose line does not hold the phrase, e.g. "full disk" for the phrase "disk full".
+     * Log lines are matched exactly with {@link #doMatch(LineTerms)}.
+     *
+     * @param line a HashSet containing the set of terms to be evaluated
+     * @return true if the set contains all the terms of the phrase, false otherwise
+     */
+    @Override
+    public boolean doMatch(HashSet<String> line) {
+        for (String term : filterTerms)
+            if (!line.contains(term)) return false;
+        return true;
+    }
+
+    /**
+     * Retrieves the pattern of the phrase.
+     *
+     * @return a single pattern holding the terms separated by spaces, with a space before and after them
+     */
+    @Override
+    public String[] getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Retrieves the terms of the phrase in quotes, to tell it from a {@link FilterMatchAll} in responses.
+     *
+     * @return the terms of the phrase separated by a single space, in quotes
+     */
+    @Override
+    public String getTerms() {
+        return "\"" + String.join(" ", filterTerms) + "\"";
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * The FilterPrefix class is an implementation of the {@link IPatternFilter} interface.
+ * It represents a filter whose terms are token prefixes: it matches a log line when each of its terms is the beginning
+ * of at least one token of the line, in any order, e.g. "err disk" matches "errors on disk0".
+ * Terms are normalized like the terms of a {@link FilterMatchAll}.
+ */
+public class FilterPrefix implements IPatternFilter {
+    /**
+     * The unique identifier of the filter.
+     */
+    int filterIdentifier;
+    /**
+     * The normalized prefixes of the filter.
+     */
+    String[] filterTerms;
+    /**
+     * The distinct patterns of the prefixes: each prefix after a space.
+     */
+    String[] patterns;
+
+    /**
+     * Constructs a FilterPrefix instance with the specified filter identifier and prefixes.
+     *
+     * @param filterIdentifier an integer representing the unique identifier of the filter
+     * @param filterString a string containing the prefixes of the filter, separated by spaces
+     */
+    public FilterPrefix(int filterIdentifier, String filterString) {
+        this.filterIdentifier = filterIdentifier;
+        filterTerms = new LineTokenizer().split(filterString);
+        patterns = Arrays.stream(filterTerms).map(term -> " " + term).distinct().toArray(String[]::new);
+    }
+
+    /**
+     * Retrieves the unique identifier of this filter.
+     *
+     * @return the unique integer identifier of the filter
+     */
+    @Override
+    public int getFilterIdentifier() {
+        return filterIdentifier;
+    }
+
+    /**
+     * Evaluates whether each prefix of the filter begins at least one of the provided terms.
+     *
+     * @param line a HashSet containing the set of terms to be evaluated
+     * @return true if every prefix begins one of the terms, false otherwise
+     */
+    @Override
+    public boolean doMatch(HashSet<String> line) {
+        for (String prefix : filterTerms)
+            if (line.stream().noneMatch(term -> term.startsWith(prefix))) return false;
+        return true;
+    }
+
+    /**
+     * Retrieves the patterns of the prefixes.
+     *
+     * @return one pattern for each distinct prefix, made of a space followed by the prefix
+     */
+    @Override
+    public String[] getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Retrieves the prefixes of the filter, each followed by "*" to tell them from the terms of a {@link FilterMatchAll} in responses.
+     *
+     * @return the prefixes followed by "*" and separated by a single space
+     */
+    @Override
+    public String getTerms() {
+        StringBuilder ret = new StringBuilder();
+        for (String prefix : filterTerms) {
+            if (ret.length() > 0) ret.append(' ');
+            ret.append(prefix).append('*');
+        }
+        return ret.toString();
+    }
+}
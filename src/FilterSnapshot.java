@@ -0,0 +1,200 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The FilterSnapshot class saves the filters of a {@link StreamFilter} to a compact binary file and loads them back,
+ * so that a restarted process does not have to replay its filter lines.
+ * <p>
+ * The file holds the term dictionary, in identifier order, and each filter with its identifier, its kind and its
+ * normalized terms as term identifiers. Loading maps the file, checks its format version and checksum, interns
+ * the terms in the same order, so that they keep their identifiers, builds the filters without tokenizing them
+ * again and registers them to the inverted index in one batch.
+ * <p>
+ * The layout, in big-endian order:
+ * <pre>
+ * int     MAGIC, int VERSION, int last filter identifier
+ * int     term count, then for each term: int byte length, UTF-8 bytes
+ * int     filter count, then for each filter: int identifier, byte kind, and
+ *           KIND_TERMS: int term count, int term identifier of each term
+ *           other kinds: int byte length, UTF-8 bytes of the normalized filter string
+ * long    CRC-32 of all the preceding bytes
+ * </pre>
+ */
+public class FilterSnapshot {
+    /**
+     * The first 4 bytes of a snapshot file: "JSFS".
+     */
+    static final int MAGIC = 0x4A534653;
+    /**
+     * The version of the format written by this class; files of other versions are rejected.
+     */
+    static final int VERSION = 1;
+
+    /*
+     * The kinds of filters, with the prefix of the lines defining them.
+     */
+    private static final byte KIND_TERMS = 0;
+    private static final byte KIND_PHRASE = 1;
+    private static final byte KIND_PREFIX = 2;
+    private static final byte KIND_EXPRESSION = 3;
+
+    private FilterSnapshot() {
+    }
+
+    /**
+     * Saves the filters of a StreamFilter. The file is written next to the target and then moved over it,
+     * so a reader never sees a partial file. Filters changed while saving may or may not be included.
+     *
+     * @param streamFilter the StreamFilter whose filters are saved
+     * @param path the path of the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    static void save(StreamFilter streamFilter, Path path) throws IOException {
+        Collection<IFilter> filters = new ArrayList<>(streamFilter.filters.values());
+        // Read after the filters, so that it covers those created meanwhile; the loader rejects identifiers beyond it
+        int lastFilterIdentifier = streamFilter.lastFilterIdentifier.get();
+        for (IFilter filter : filters) lastFilterIdentifier = Math.max(lastFilterIdentifier, filter.getFilterIdentifier());
+        // The dictionary only grows, and holds the terms of the filters before they are listed
+        TermDictionary dictionary = streamFilter.dictionary;
+        int termCount = dictionary.size();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16), new CRC32());
+        try (DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lastFilterIdentifier);
+            out.writeInt(termCount);
+            for (int id = 0; id < termCount; id++) writeString(out, dictionary.term(id));
+            out.writeInt(filters.size());
+            for (IFilter filter : filters) {
+                out.writeInt(filter.getFilterIdentifier());
+                if (filter instanceof FilterMatchAll) {
+                    String[] terms = ((FilterMatchAll) filter).filterTerms;
+                    out.writeByte(KIND_TERMS);
+                    out.writeInt(terms.length);
+                    for (String term : terms) out.writeInt(dictionary.lookup(term));
+                } else if (filter instanceof FilterPhrase) {
+                    out.writeByte(KIND_PHRASE);
+                    writeString(out, String.join(" ", ((FilterPhrase) filter).filterTerms));
+                } else if (filter instanceof FilterPrefix) {
+                    out.writeByte(KIND_PREFIX);
+                    writeString(out, String.join(" ", ((FilterPrefix) filter).filterTerms));
+                } else {
+                    out.writeByte(KIND_EXPRESSION);
+                    writeString(out, filter.getTerms());
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads the filters saved in a snapshot file into a new StreamFilter.
+     * The filters keep their identifiers, and new filters get identifiers after the last one saved.
+     *
+     * @param path the path of the snapshot file
+     * @return a StreamFilter holding the saved filters
+     * @throws IOException if the file cannot be read, is not a snapshot, has another format version or is corrupted
+     */
+    static StreamFilter load(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Filter snapshot larger than 2GB: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.capacity();
+        if (size < 20 || buffer.getInt(0) != MAGIC) throw new IOException("Not a filter snapshot: " + path);
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported filter snapshot version " + buffer.getInt(4) + ", expected " + VERSION + ": " + path);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(0, size - 8));
+        if (crc.getValue() != buffer.getLong(size - 8)) throw new IOException("Corrupted filter snapshot, checksum mismatch: " + path);
+        try {
+            return read(buffer.slice(8, size - 16));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException("Malformed filter snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Reads the contents of a snapshot, after its header, into a new StreamFilter.
+     */
+    private static StreamFilter read(ByteBuffer in) {
+        StreamFilter ret = new StreamFilter();
+        int lastFilterIdentifier = in.getInt();
+        int termCount = in.getInt();
+        String[] terms = new String[termCount];
+        for (int id = 0; id < termCount; id++) {
+            terms[id] = readString(in);
+            if (ret.dictionary.intern(terms[id]) != id) throw new IllegalArgumentException("Duplicate term " + terms[id]);
+        }
+        int filterCount = in.getInt();
+        // Sized for all the filters at once, instead of growing along
+        ret.filters = new ConcurrentHashMap<>(filterCount);
+        List<IFilter> indexed = new ArrayList<>(filterCount);
+        for (int i = 0; i < filterCount; i++) {
+            int filterIdentifier = in.getInt();
+            byte kind = in.get();
+            IFilter aFilter;
+            if (kind == KIND_TERMS) {
+                int[] wordIds = new int[in.getInt()];
+                String[] filterTerms = new String[wordIds.length];
+                for (int j = 0; j < wordIds.length; j++) {
+                    wordIds[j] = in.getInt();
+                    filterTerms[j] = terms[wordIds[j]];
+                }
+                aFilter = new FilterMatchAll(filterIdentifier, filterTerms, wordIds);
+            } else if (kind == KIND_PHRASE || kind == KIND_PREFIX || kind == KIND_EXPRESSION) {
+                String prefix = (kind == KIND_PHRASE ? "QP:" : kind == KIND_PREFIX ? "QX:" : "QF:");
+                aFilter = ret.createFilter(prefix, filterIdentifier, readString(in));
+            } else {
+                throw new IllegalArgumentException("Unknown filter kind " + kind);
+            }
+            if (filterIdentifier <= 0 || filterIdentifier > lastFilterIdentifier || ret.filters.putIfAbsent(filterIdentifier, aFilter) != null)
+                throw new IllegalArgumentException("Invalid filter identifier " + filterIdentifier);
+            if (aFilter instanceof IPatternFilter) ret.patterns.addFilter((IPatternFilter) aFilter);
+            else indexed.add(aFilter);
+        }
+        if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes");
+        ret.index.addFilters(indexed);
+        ret.lastFilterIdentifier.set(lastFilterIdentifier);
+        return ret;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) throw new IllegalArgumentException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -24,6 +24,15 @@ public interface IFilter {
      */
     public boolean doMatch(HashSet<String> line);
 
+    /**
+     * Evaluates whether the given line terms match the criteria defined by the filter implementation.
+     * This is the variant used on the matching path; it works on term identifiers and does not hash Strings.
+     *
+     * @param line the term identifiers of a normalized line to be evaluated
+     * @return true if the given line terms match the filter criteria, false otherwise
+     */
+    public boolean doMatch(LineTerms line);
+
     /**
      * Retrieves the terms associated with the filter.
      * The terms represent the normalized tokens or conditions
@@ -32,4 +41,25 @@ public interface IFilter {
      * @return a string containing the terms of the filter, separated by spaces
      */
     public String getTerms();
+
+    /**
+     * Reorders the evaluation of the filter after new term statistics were published, e.g. to probe its rarest terms first.
+     * The result of {@link #doMatch(LineTerms)} must stay the same; only its cost may change.
+     * The default implementation keeps the current order.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     */
+    public default void optimize(TermStatistics statistics) {
+    }
+
+    /**
+     * Estimates the cost of one evaluation of {@link #doMatch(LineTerms)}, in term probes.
+     * The default implementation counts one probe.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     * @return the expected number of term probes of one evaluation
+     */
+    public default double estimateCost(TermStatistics statistics) {
+        return 1;
+    }
 }
@@ -0,0 +1,30 @@
+/**
+ * The IPatternFilter interface defines filters matching the normalized text of a log line rather than its set of terms,
+ * such as filters on ordered phrases or token prefixes.
+ * A filter is described by its patterns: it matches a line when each of its patterns occurs in the normalized text of the
+ * line, i.e. the tokens of the line separated by single spaces, with a space before the first token and after the last one.
+ * A pattern thus anchors on token boundaries with spaces, e.g. " disk full " for a phrase or " err" for a token prefix.
+ * The patterns of all registered filters are compiled together by a {@link PatternIndex}, so that a log line is scanned once.
+ */
+public interface IPatternFilter extends IFilter {
+    /**
+     * Retrieves the patterns of the filter, all of which must occur in the normalized text of a line for the filter to match.
+     *
+     * @return the distinct patterns of the filter
+     */
+    public String[] getPatterns();
+
+    /**
+     * Evaluates whether each pattern of the filter occurs in the normalized text of the line.
+     * The text must have been kept by the tokenizer, see {@link LineTokenizer#tokenize(CharSequence, int, int, TermDictionary, LineTerms, boolean)}.
+     *
+     * @param line the term identifiers and the normalized text of a line to be evaluated
+     * @return true if all the patterns occur in the text of the line, false otherwise
+     */
+    @Override
+    public default boolean doMatch(LineTerms line) {
+        for (String pattern : getPatterns())
+            if (!line.containsText(pattern)) return false;
+        return true;
+    }
+}
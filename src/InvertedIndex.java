@@ -0,0 +1,947 @@
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The InvertedIndex class maps each filter term to the posting list of filters containing that term.
+ * Terms are the identifiers of a {@link TermDictionary}, so the posting lists are found by array indexing.
+ * A log line is matched by walking only the posting lists of its own tokens and counting, per filter,
+ * how many distinct filter terms were hit. A filter matches when its hit count reaches its term count,
+ * so filters sharing no token with the line are never looked at.
+ * Optionally, each posting entry also carries the 64-bit term signature of its filter (see {@link LineTerms#signatureBit(int)}):
+ * a filter whose signature is not a subset of the line signature cannot match, and is skipped with a single
+ * AND/compare instead of being counted.
+ * A {@link FilterExpression} requiring some terms is guarded by the rarest of them: it is evaluated directly with
+ * {@link IFilter#doMatch(LineTerms)}, but only against the lines holding that term. Other filters whose terms cannot
+ * be indexed, such as expressions made of alternatives or negations only, are kept aside and evaluated against every line.
+ * <p>
+ * The index is built over distinct term sets rather than filters: each slot holds one term set, and the filters
+ * with the same terms after normalization are the members of one slot, evaluated once and all reported when it matches.
+ * Slots also form a subset lattice. A slot whose terms are a strict superset of the terms of a slot registered before
+ * it becomes a child of the largest such slot: it is not in the posting lists, and only its extra terms are probed,
+ * once its parent has matched and its signature fits the line. The children of a slot are kept in a list like
+ * a posting list. With many overlapping filters, such as "error", "error disk" and "error disk full", most of them
+ * are then never looked at. A slot registered before one of its subsets stays in the posting lists until the lattice
+ * is rebuilt by a compaction.
+ * <p>
+ * The index is safe for concurrent use. Filters are added one at a time under a lock, and each addition ends by
+ * publishing an immutable {@link Snapshot} of the index through a volatile field. Matching never takes a lock:
+ * it reads the current snapshot once and only considers the filters of that snapshot, so a filter being added
+ * is either fully visible or not at all. The per-line counters live in the caller's {@link MatchScratch}.
+ * <p>
+ * Filters can be removed in time proportional to their number of terms: the filter is only marked as removed,
+ * and the slot of a term set without any filter left becomes a tombstone, which can never reach its term count.
+ * Posting lists holding mostly tombstones are rewritten by a background compaction, and the whole index is rebuilt
+ * once most of the filters are removed, so the cost of matching shrinks again as filters go away.
+ */
+public class InvertedIndex {
+    /**
+     * Marks the unused tail of a posting list. It is larger than any slot, so a reader stops at it.
+     */
+    static final int NO_SLOT = Integer.MAX_VALUE;
+    /**
+     * The term count of a slot without any filter left. A line hits a slot at least once before its count is
+     * compared, so a removed slot never matches.
+     */
+    static final int REMOVED = 0;
+    /**
+     * Marks the end of a chain of members, and a slot without parent.
+     */
+    static final int NONE = -1;
+    /**
+     * The largest number of terms of a filter whose subsets are looked up to place it in the lattice.
+     * Larger filters would need too many lookups and are always in the posting lists.
+     */
+    static final int MAX_LATTICE_TERMS = 8;
+
+    /**
+     * The thread compacting the indexes in the background. It is a daemon thread, so it never keeps the JVM alive.
+     */
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "InvertedIndex-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A set of term identifiers in ascending order, as a key of the slots of the writer.
+     * Each identifier is mixed into the hash, as the hashes of Lists of small Integers collide for most pairs.
+     */
+    private static final class TermSet {
+        final int[] terms;
+        final int hash;
+
+        TermSet(int[] terms) {
+            this.terms = terms;
+            int h = terms.length;
+            for (int termId : terms) {
+                h = (h + termId) * 0x9E3779B1;
+                h ^= h >>> 15;
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TermSet && Arrays.equals(terms, ((TermSet) other).terms);
+        }
+    }
+
+    /**
+     * A list of slots sharing one term, in ascending order, followed by {@link #NO_SLOT} markers,
+     * and the signature of the terms of each slot.
+     * Slots are only ever appended over the markers; a full list is replaced by a larger copy,
+     * and a list holding many removed slots by a copy without them.
+     * The arrays are final fields, so a reader which sees the list also sees the slots copied into it,
+     * and any slot appended afterwards belongs to a later snapshot than the ones already published.
+     */
+    static final class Posting {
+        final int[] slots;
+        final long[] signatures;
+        /**
+         * Number of slots in use; only read and written by the writer.
+         */
+        int size;
+        /**
+         * Number of slots in use which were removed; only read and written by the writer.
+         */
+        int removed;
+
+        Posting(int[] slots, long[] signatures, int size) {
+            this.slots = slots;
+            this.signatures = signatures;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The filters guarded by one term, with the sequence number of each filter in ascending order.
+     * A list is replaced by a copy when it changes; the arrays are final fields, so a reader which sees the list
+     * also sees the filters copied into it.
+     */
+    static final class Guarded {
+        final IFilter[] filters;
+        final int[] sequences;
+
+        Guarded(IFilter[] filters, int[] sequences) {
+            this.filters = filters;
+            this.sequences = sequences;
+        }
+    }
+
+    /**
+     * An immutable view of the index as it was after a filter was added.
+     * The arrays may be shared with later snapshots, but entries a snapshot can see are never modified, except for
+     * the removal of a filter or a slot and the links to members and children appended after them:
+     * slots at or beyond {@link #size} and members at or beyond {@link #members} are ignored.
+     * Members are chained in ascending order, so a reader stops at the first one beyond its snapshot.
+     * Likewise, guarded filters with a sequence number at or beyond {@link #guards} are ignored.
+     */
+    static final class Snapshot {
+        /**
+         * The posting list of the root slots containing each term, indexed by term identifier; null for terms used by no root slot.
+         */
+        final Posting[] postings;
+        /**
+         * Number of distinct terms of each slot, indexed by slot; {@link #REMOVED} once no filter depends on the slot.
+         */
+        final int[] termCounts;
+        /**
+         * The first member of each slot, and the next member of each member; {@link #NONE} at the end of a chain.
+         */
+        final int[] firstMember;
+        final int[] nextMember;
+        /**
+         * Filter identifier of each member, and whether the filter was removed, indexed by member.
+         */
+        final int[] filterIdentifiers;
+        final boolean[] memberRemoved;
+        /**
+         * The list of the children of each slot, with the signature of each child; null for a slot without children.
+         */
+        final Posting[] children;
+        /**
+         * The terms of each child slot missing from its parent, in probing order; null for a root slot.
+         */
+        final int[][] extraTerms;
+        /**
+         * Number of slots and of members visible in this snapshot.
+         */
+        final int size;
+        final int members;
+        /**
+         * Number of the visible members whose filter was removed.
+         */
+        final int removed;
+        /**
+         * Filters which cannot be decomposed into terms and are evaluated one by one.
+         */
+        final IFilter[] unindexed;
+        /**
+         * The filters guarded by each term, indexed by term identifier; null for terms guarding no filter.
+         */
+        final Guarded[] guarded;
+        /**
+         * The sequence number of the next filter guarded after this snapshot, and the number of guarded filters.
+         * Filters guarded after this snapshot are ignored.
+         */
+        final int guards;
+        final int guardedCount;
+
+        Snapshot(Posting[] postings, int[] termCounts, int[] firstMember, int[] nextMember, int[] filterIdentifiers,
+                 boolean[] memberRemoved, Posting[] children, int[][] extraTerms,
+                 int size, int members, int removed, IFilter[] unindexed, Guarded[] guarded, int guards, int guardedCount) {
+            this.postings = postings;
+            this.termCounts = termCounts;
+            this.firstMember = firstMember;
+            this.nextMember = nextMember;
+            this.filterIdentifiers = filterIdentifiers;
+            this.memberRemoved = memberRemoved;
+            this.children = children;
+            this.extraTerms = extraTerms;
+            this.size = size;
+            this.members = members;
+            this.removed = removed;
+            this.unindexed = unindexed;
+            this.guarded = guarded;
+            this.guards = guards;
+            this.guardedCount = guardedCount;
+        }
+    }
+
+    /**
+     * The latest published snapshot, read once by each match.
+     */
+    volatile Snapshot snapshot;
+    /**
+     * Whether posting entries are checked against the line signature before being counted.
+     */
+    private volatile boolean signatureFilter;
+    /**
+     * Number of posting entries checked against the line signature, and number of them rejected by the check.
+     */
+    private final LongAdder signatureChecks;
+    private final LongAdder signatureRejections;
+    /**
+     * Number of slots evaluated by the matches: hit through a posting list, or probed after their parent matched.
+     */
+    private final LongAdder slotEvaluations;
+    /**
+     * The metrics counting the evaluations and hits of each filter while they are enabled.
+     */
+    private final FilterMetrics metrics;
+
+    /*
+     * The working state of the writer. It is only modified while holding the lock of this index.
+     */
+    private Posting[] postings;
+    private int[] termCounts;
+    private int[] firstMember;
+    private int[] nextMember;
+    private int[] filterIdentifiers;
+    private boolean[] memberRemoved;
+    private Posting[] children;
+    private int[][] extraTerms;
+    private int size;
+    private int members;
+    private int removed;
+    private IFilter[] unindexed;
+    private Guarded[] guarded;
+    private int guards;
+    /**
+     * The guarding term of each guarded filter.
+     */
+    private Map<IFilter, Integer> guardOf;
+    /*
+     * The bookkeeping of the writer, never read by the matches: the sorted terms, parent, last member,
+     * number of live members and number of live children of each slot, and the filter and slot of each member.
+     */
+    private int[][] slotTerms;
+    private int[] parent;
+    private int[] lastMember;
+    private int[] liveMembers;
+    private int[] liveChildren;
+    private IFilter[] memberFilters;
+    private int[] memberSlot;
+    /**
+     * The member of each indexed filter, by filter identifier.
+     */
+    private Map<Integer, Integer> memberOf;
+    /**
+     * The slot of each live term set, by its sorted term identifiers.
+     */
+    private Map<TermSet, Integer> slotOf;
+    /**
+     * The terms whose posting list holds more removed slots than live ones.
+     */
+    private BitSet compactableTerms;
+    /**
+     * Whether a compaction has been handed to the background thread and has not started yet.
+     */
+    private boolean compactionScheduled;
+
+    /**
+     * Constructs an empty inverted index.
+     */
+    public InvertedIndex() {
+        this(new FilterMetrics());
+    }
+
+    /**
+     * Constructs an empty inverted index reporting the evaluations and hits of each filter to the given metrics.
+     * A filter is evaluated by a line when the line hits at least one of the terms of its slot, when its slot is probed
+     * after its parent matched, or always if it is not indexed.
+     *
+     * @param metrics the metrics of the filters; nothing is reported while they are disabled
+     */
+    public InvertedIndex(FilterMetrics metrics) {
+        this.metrics = metrics;
+        unindexed = new IFilter[0];
+        guarded = new Guarded[64];
+        guardOf = new HashMap<>();
+        reset();
+        signatureFilter = false;
+        signatureChecks = new LongAdder();
+        signatureRejections = new LongAdder();
+        slotEvaluations = new LongAdder();
+        publish();
+    }
+
+    /**
+     * Registers a filter with the index. The terms of a {@link FilterMatchAll} are added to the posting lists,
+     * unless a filter with the same terms is already registered, or the filter is placed in the lattice under a subset;
+     * a {@link FilterExpression} is guarded by the first of its required terms, rarest first once it was optimized;
+     * any other filter is kept in the list of filters evaluated directly.
+     * The filter becomes visible to the matches started after this method returns.
+     *
+     * @param filter the filter to be registered
+     */
+    public synchronized void addFilter(IFilter filter) {
+        add(filter);
+        publish();
+    }
+
+    /**
+     * Registers many filters at once, e.g. when they are loaded from a {@link FilterSnapshot}.
+     * Filters with fewer terms are added first, so that every filter finds its registered subsets and the lattice
+     * is complete, as after a rebuild. The filters become visible together, to the matches started after this method returns.
+     *
+     * @param filters the filters to be registered
+     */
+    public synchronized void addFilters(Collection<IFilter> filters) {
+        List<IFilter> ordered = new ArrayList<>(filters);
+        ordered.sort(Comparator.comparingInt(filter -> filter instanceof FilterMatchAll ? ((FilterMatchAll) filter).termIds.length : 0));
+        for (IFilter filter : ordered) add(filter);
+        publish();
+    }
+
+    /**
+     * Removes a filter from the index. The filter no longer matches the lines whose match starts after this method returns.
+     * Its posting entries are left as tombstones and reclaimed later by a background compaction.
+     *
+     * @param filter the filter to be removed, as registered
+     * @return true if the filter was removed, false if it was not registered
+     */
+    public synchronized boolean removeFilter(IFilter filter) {
+        if (!remove(filter)) return false;
+        publish();
+        scheduleCompaction();
+        return true;
+    }
+
+    /**
+     * Replaces a registered filter by another one, usually with the same identifier.
+     * The matches started after this method returns see the replacement instead of the filter;
+     * a match running concurrently may see the filter, the replacement or, briefly, neither of them.
+     *
+     * @param filter the filter to be removed, as registered
+     * @param replacement the filter to be registered instead
+     * @return true if the filter was replaced, false if it was not registered and nothing changed
+     */
+    public synchronized boolean replaceFilter(IFilter filter, IFilter replacement) {
+        if (!remove(filter)) return false;
+        add(replacement);
+        publish();
+        scheduleCompaction();
+        return true;
+    }
+
+    /**
+     * Rewrites the posting lists holding mostly removed slots, and rebuilds the whole index if most of the filters were
+     * removed, which also completes the lattice. It runs in the background after removals; calling it directly compacts
+     * the index right away. Matches in progress keep using the posting lists of their snapshot.
+     */
+    public synchronized void compact() {
+        compactionScheduled = false;
+        if (removed == 0 && compactableTerms.isEmpty()) return;
+        if (removed * 2 > members) {
+            rebuild();
+        } else {
+            for (int termId = compactableTerms.nextSetBit(0); termId >= 0; termId = compactableTerms.nextSetBit(termId + 1))
+                postings[termId] = copyLive(postings[termId]);
+            compactableTerms.clear();
+        }
+        publish();
+    }
+
+    /**
+     * Reorders the evaluations after new term statistics were published: the extra terms of each child slot are probed
+     * rarest first, so that a child whose parent matched is rejected by its first probe as often as possible,
+     * each guarded filter moves to its rarest required term, and the filters evaluated directly are ordered by
+     * increasing estimated cost, see {@link TermStatistics#byCost()}.
+     * The posting lists count hits whatever the order of the terms, so they are left as they are.
+     * The reordered arrays replace the current ones in a new snapshot; the results of the matches stay the same.
+     *
+     * @param statistics the estimated frequencies of the terms in the log lines
+     */
+    public synchronized void optimize(TermStatistics statistics) {
+        // Published snapshots share the array of extra terms, so the reordered terms go into a copy
+        int[][] reordered = null;
+        for (int slot = 0; slot < size; slot++) {
+            int[] extra = extraTerms[slot];
+            if (extra == null || extra.length < 2 || termCounts[slot] == REMOVED) continue;
+            int[] ordered = statistics.rarestFirst(extra);
+            if (Arrays.equals(ordered, extra)) continue;
+            if (reordered == null) reordered = extraTerms.clone();
+            reordered[slot] = ordered;
+        }
+        if (reordered != null) extraTerms = reordered;
+        // Published snapshots share the guarded lists too, and must see a moved filter exactly once
+        boolean copied = false;
+        for (Map.Entry<IFilter, Integer> entry : new ArrayList<>(guardOf.entrySet())) {
+            int rarest = statistics.rarestFirst(((FilterExpression) entry.getKey()).requiredTermIds)[0];
+            if (rarest == entry.getValue()) continue;
+            if (!copied) {
+                guarded = guarded.clone();
+                copied = true;
+            }
+            unguard(entry.getKey());
+            guard(entry.getKey(), rarest);
+        }
+        if (unindexed.length > 1) {
+            IFilter[] ordered = unindexed.clone();
+            Arrays.sort(ordered, statistics.byCost());
+            unindexed = ordered;
+        }
+        publish();
+    }
+
+    /**
+     * Empties the working state of the writer into new arrays, keeping the filters evaluated directly.
+     */
+    private void reset() {
+        postings = new Posting[64];
+        termCounts = new int[16];
+        firstMember = new int[16];
+        children = new Posting[16];
+        extraTerms = new int[16][];
+        slotTerms = new int[16][];
+        parent = new int[16];
+        lastMember = new int[16];
+        liveMembers = new int[16];
+        liveChildren = new int[16];
+        nextMember = new int[16];
+        filterIdentifiers = new int[16];
+        memberRemoved = new boolean[16];
+        memberFilters = new IFilter[16];
+        memberSlot = new int[16];
+        size = 0;
+        members = 0;
+        removed = 0;
+        memberOf = new HashMap<>();
+        slotOf = new HashMap<>();
+        compactableTerms = new BitSet();
+    }
+
+    /**
+     * Adds a filter to the working state.
+     */
+    private void add(IFilter filter) {
+        if (filter instanceof FilterExpression && ((FilterExpression) filter).requiredTermIds.length > 0) {
+            guard(filter, ((FilterExpression) filter).requiredTermIds[0]);
+            return;
+        }
+        if (!(filter instanceof FilterMatchAll)) {
+            unindexed = Arrays.copyOf(unindexed, unindexed.length + 1);
+            unindexed[unindexed.length - 1] = filter;
+            return;
+        }
+        // Term identifiers of a filter are distinct, as a line contributes each token once
+        int[] termIds = ((FilterMatchAll) filter).termIds;
+        int[] sorted = termIds.clone();
+        Arrays.sort(sorted);
+        TermSet key = new TermSet(sorted);
+        Integer slot = slotOf.get(key);
+        if (slot == null) {
+            slot = addSlot(sorted, termIds);
+            slotOf.put(key, slot);
+        }
+        addMember(slot, filter);
+    }
+
+    /**
+     * Appends a filter to the list of the filters guarded by a term, under the next sequence number, so that
+     * the published snapshots do not see it.
+     */
+    private void guard(IFilter filter, int termId) {
+        if (termId >= guarded.length) guarded = Arrays.copyOf(guarded, Math.max(termId + 1, guarded.length * 2));
+        Guarded list = guarded[termId];
+        int length = list == null ? 0 : list.filters.length;
+        IFilter[] filters = list == null ? new IFilter[1] : Arrays.copyOf(list.filters, length + 1);
+        int[] sequences = list == null ? new int[1] : Arrays.copyOf(list.sequences, length + 1);
+        filters[length] = filter;
+        sequences[length] = guards++;
+        guarded[termId] = new Guarded(filters, sequences);
+        guardOf.put(filter, termId);
+    }
+
+    /**
+     * Removes a filter from the list of the filters guarded by its term.
+     *
+     * @return true if the filter was guarded, false otherwise
+     */
+    private boolean unguard(IFilter filter) {
+        Integer termId = guardOf.remove(filter);
+        if (termId == null) return false;
+        Guarded list = guarded[termId];
+        int length = list.filters.length;
+        if (length == 1) {
+            guarded[termId] = null;
+            return true;
+        }
+        IFilter[] filters = new IFilter[length - 1];
+        int[] sequences = new int[length - 1];
+        for (int i = 0, j = 0; i < length; i++) {
+            if (list.filters[i] == filter) continue;
+            filters[j] = list.filters[i];
+            sequences[j++] = list.sequences[i];
+        }
+        // Published snapshots share this array; they see the removal as if it had happened before them
+        guarded[termId] = new Guarded(filters, sequences);
+        return true;
+    }
+
+    /**
+     * Adds a slot for a new term set, either as a child of its largest registered subset or into the posting lists.
+     *
+     * @param sorted the term identifiers in ascending order
+     * @param termIds the term identifiers in probing order
+     * @return the new slot
+     */
+    private int addSlot(int[] sorted, int[] termIds) {
+        if (size == termCounts.length) {
+            int capacity = size * 2;
+            termCounts = Arrays.copyOf(termCounts, capacity);
+            firstMember = Arrays.copyOf(firstMember, capacity);
+            children = Arrays.copyOf(children, capacity);
+            extraTerms = Arrays.copyOf(extraTerms, capacity);
+            slotTerms = Arrays.copyOf(slotTerms, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            lastMember = Arrays.copyOf(lastMember, capacity);
+            liveMembers = Arrays.copyOf(liveMembers, capacity);
+            liveChildren = Arrays.copyOf(liveChildren, capacity);
+        }
+        int slot = size;
+        termCounts[slot] = sorted.length;
+        firstMember[slot] = NONE;
+        lastMember[slot] = NONE;
+        children[slot] = null;
+        slotTerms[slot] = sorted;
+        liveMembers[slot] = 0;
+        liveChildren[slot] = 0;
+        long signature = 0;
+        for (int termId : sorted) signature |= LineTerms.signatureBit(termId);
+        int aParent = largestSubset(sorted);
+        parent[slot] = aParent;
+        if (aParent != NONE) {
+            // Only the terms missing from the parent are probed, in the probing order of the filter
+            int[] parentTerms = slotTerms[aParent];
+            int[] extra = new int[sorted.length - parentTerms.length];
+            int count = 0;
+            for (int termId : termIds)
+                if (Arrays.binarySearch(parentTerms, termId) < 0) extra[count++] = termId;
+            extraTerms[slot] = extra;
+            // The slot is complete before it is listed, beyond the size of the published snapshots
+            children[aParent] = append(children[aParent], slot, signature);
+            liveChildren[aParent]++;
+        } else {
+            extraTerms[slot] = null;
+            for (int termId : sorted) {
+                if (termId >= postings.length) postings = Arrays.copyOf(postings, Math.max(termId + 1, postings.length * 2));
+                postings[termId] = append(postings[termId], slot, signature);
+            }
+        }
+        size++;
+        return slot;
+    }
+
+    /**
+     * Appends a slot to a posting list or a list of children, replacing the list by a larger copy when it is full.
+     *
+     * @param posting the list, or null to start a new one
+     * @return the list holding the slot
+     */
+    private static Posting append(Posting posting, int slot, long signature) {
+        if (posting == null || posting.size == posting.slots.length) {
+            int length = posting == null ? 0 : posting.size;
+            int[] slots = new int[Math.max(4, length * 2)];
+            long[] signatures = new long[slots.length];
+            if (posting != null) {
+                System.arraycopy(posting.slots, 0, slots, 0, length);
+                System.arraycopy(posting.signatures, 0, signatures, 0, length);
+            }
+            Arrays.fill(slots, length, slots.length, NO_SLOT);
+            Posting grown = new Posting(slots, signatures, length);
+            if (posting != null) grown.removed = posting.removed;
+            posting = grown;
+        }
+        posting.signatures[posting.size] = signature;
+        posting.slots[posting.size++] = slot;
+        return posting;
+    }
+
+    /**
+     * Finds the live slot holding the largest strict subset of the given terms, if the filter is small enough to look.
+     *
+     * @param sorted the term identifiers in ascending order
+     * @return the slot of the largest subset, or {@link #NONE}
+     */
+    private int largestSubset(int[] sorted) {
+        int n = sorted.length;
+        if (n < 2 || n > MAX_LATTICE_TERMS) return NONE;
+        int ret = NONE;
+        int best = 0;
+        for (int mask = (1 << n) - 2; mask > 0; mask--) {
+            int count = Integer.bitCount(mask);
+            if (count <= best) continue;
+            int[] subset = new int[count];
+            for (int i = 0, j = 0; i < n; i++)
+                if ((mask & (1 << i)) != 0) subset[j++] = sorted[i];
+            Integer slot = slotOf.get(new TermSet(subset));
+            if (slot != null) {
+                ret = slot;
+                best = count;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Appends a filter to the members of a slot.
+     */
+    private void addMember(int slot, IFilter filter) {
+        if (members == filterIdentifiers.length) {
+            int capacity = members * 2;
+            nextMember = Arrays.copyOf(nextMember, capacity);
+            filterIdentifiers = Arrays.copyOf(filterIdentifiers, capacity);
+            memberRemoved = Arrays.copyOf(memberRemoved, capacity);
+            memberFilters = Arrays.copyOf(memberFilters, capacity);
+            memberSlot = Arrays.copyOf(memberSlot, capacity);
+        }
+        int member = members;
+        filterIdentifiers[member] = filter.getFilterIdentifier();
+        memberRemoved[member] = false;
+        memberFilters[member] = filter;
+        memberSlot[member] = slot;
+        nextMember[member] = NONE;
+        // The member is complete before it is linked, and the link is beyond the members of the published snapshots
+        if (lastMember[slot] == NONE) firstMember[slot] = member;
+        else nextMember[lastMember[slot]] = member;
+        lastMember[slot] = member;
+        liveMembers[slot]++;
+        memberOf.put(filter.getFilterIdentifier(), member);
+        members++;
+    }
+
+    /**
+     * Removes a filter from the working state, and turns its slot into a tombstone if nothing depends on it anymore.
+     */
+    private boolean remove(IFilter filter) {
+        if (unguard(filter)) return true;
+        if (!(filter instanceof FilterMatchAll)) {
+            List<IFilter> remaining = new ArrayList<>(Arrays.asList(unindexed));
+            if (!remaining.remove(filter)) return false;
+            unindexed = remaining.toArray(new IFilter[0]);
+            return true;
+        }
+        Integer member = memberOf.remove(filter.getFilterIdentifier());
+        if (member == null) return false;
+        // Published snapshots share this array; they see the removal as if it had happened before them
+        memberRemoved[member] = true;
+        memberFilters[member] = null;
+        removed++;
+        int slot = memberSlot[member];
+        liveMembers[slot]--;
+        removeSlotIfUnused(slot);
+        return true;
+    }
+
+    /**
+     * Turns a slot without live members nor live children into a tombstone, then its parent if it becomes unused too.
+     */
+    private void removeSlotIfUnused(int slot) {
+        while (slot != NONE && liveMembers[slot] == 0 && liveChildren[slot] == 0) {
+            termCounts[slot] = REMOVED;
+            slotOf.remove(new TermSet(slotTerms[slot]));
+            int aParent = parent[slot];
+            if (aParent == NONE) {
+                for (int termId : slotTerms[slot]) {
+                    Posting posting = postings[termId];
+                    if (++posting.removed * 2 > posting.size) compactableTerms.set(termId);
+                }
+            } else {
+                liveChildren[aParent]--;
+            }
+            slot = aParent;
+        }
+    }
+
+    /**
+     * Hands a compaction to the background thread if there is something to compact and none is pending.
+     */
+    private void scheduleCompaction() {
+        if (compactionScheduled || (compactableTerms.isEmpty() && removed * 2 <= members)) return;
+        compactionScheduled = true;
+        COMPACTOR.execute(this::compact);
+    }
+
+    /**
+     * Registers the filters which were not removed again, by increasing number of terms and otherwise in the same order,
+     * so that every filter finds its subsets already registered and the lattice is complete.
+     * Everything is built into new arrays, as the published snapshots still use the current ones.
+     */
+    private void rebuild() {
+        List<IFilter> live = new ArrayList<>(members - removed);
+        for (int member = 0; member < members; member++)
+            if (!memberRemoved[member]) live.add(memberFilters[member]);
+        live.sort(Comparator.comparingInt(filter -> ((FilterMatchAll) filter).termIds.length));
+        reset();
+        for (IFilter filter : live) add(filter);
+    }
+
+    /**
+     * Copies the entries of a posting list whose slot was not removed into a new list.
+     *
+     * @param posting the posting list to be copied
+     * @return the new posting list, or null if none of its slots remains
+     */
+    private Posting copyLive(Posting posting) {
+        int live = posting.size - posting.removed;
+        if (live == 0) return null;
+        int[] slots = new int[Math.max(4, live * 2)];
+        long[] signatures = new long[slots.length];
+        int length = 0;
+        for (int i = 0; i < posting.size; i++) {
+            int slot = posting.slots[i];
+            if (termCounts[slot] == REMOVED) continue;
+            slots[length] = slot;
+            signatures[length++] = posting.signatures[i];
+        }
+        Arrays.fill(slots, length, slots.length, NO_SLOT);
+        return new Posting(slots, signatures, length);
+    }
+
+    /**
+     * Retrieves the number of filters visible to new matches.
+     *
+     * @return the number of registered filters, not counting the removed ones
+     */
+    public int size() {
+        Snapshot aSnapshot = snapshot;
+        return aSnapshot.members - aSnapshot.removed + aSnapshot.unindexed.length + aSnapshot.guardedCount;
+    }
+
+    /**
+     * Enables or disables the signature check of the posting entries. It does not change which filters match.
+     * The check is disabled by default; it pays off when filters have several terms and most of the filters
+     * sharing a term with a line miss one of their other terms, which {@link #getSignatureRejections()} tells.
+     *
+     * @param enabled true to skip the filters whose signature is not a subset of the line signature
+     */
+    public void setSignatureFilter(boolean enabled) {
+        signatureFilter = enabled;
+    }
+
+    /**
+     * Tells whether the signature check of the posting entries is enabled.
+     *
+     * @return true if the signature check is enabled
+     */
+    public boolean isSignatureFilter() {
+        return signatureFilter;
+    }
+
+    /**
+     * Retrieves the number of posting entries checked against a line signature since the index was created.
+     *
+     * @return the number of signature checks
+     */
+    public long getSignatureChecks() {
+        return signatureChecks.sum();
+    }
+
+    /**
+     * Retrieves the number of posting entries rejected by the signature check since the index was created,
+     * i.e. the number of filter evaluations saved by the signatures.
+     *
+     * @return the number of signature rejections
+     */
+    public long getSignatureRejections() {
+        return signatureRejections.sum();
+    }
+
+    /**
+     * Retrieves the number of term sets evaluated by the matches since the index was created: hit through a posting list,
+     * or probed after their parent in the lattice matched and their signature fit the line. Filters with the same terms count once.
+     *
+     * @return the number of slot evaluations
+     */
+    public long getSlotEvaluations() {
+        return slotEvaluations.sum();
+    }
+
+    /**
+     * Finds the identifiers of all registered filters matching the given line.
+     *
+     * @param line the term identifiers of a normalized line
+     * @param scratch the buffers of the calling thread
+     * @return the identifiers of the matching filters in ascending order; an empty array if none matched
+     */
+    public int[] match(LineTerms line, MatchScratch scratch) {
+        Snapshot aSnapshot = snapshot;
+        Posting[] postings = aSnapshot.postings;
+        int[] termCounts = aSnapshot.termCounts;
+        Guarded[] guarded = aSnapshot.guarded;
+        int size = aSnapshot.size;
+        scratch.ensureSlots(size);
+        int[] hits = scratch.hits;
+        int[] touched = scratch.touched;
+        boolean checkSignatures = signatureFilter;
+        long missing = ~line.getSignature();
+        boolean measured = metrics.enabled;
+        int checks = 0;
+        int rejections = 0;
+        int matchCount = 0;
+        int touchedCount = 0;
+        for (int t = 0; t < line.size(); t++) {
+            int termId = line.get(t);
+            Guarded guard = termId < guarded.length ? guarded[termId] : null;
+            if (guard != null) matchCount = matchGuarded(aSnapshot, guard, line, scratch, matchCount, measured);
+            Posting posting = termId < postings.length ? postings[termId] : null;
+            if (posting == null) continue;
+            int[] slots = posting.slots;
+            long[] signatures = posting.signatures;
+            for (int i = 0; i < slots.length; i++) {
+                int slot = slots[i];
+                // Slots are ascending: the remaining ones were added after this snapshot
+                if (slot >= size) break;
+                if (checkSignatures) {
+                    checks++;
+                    if ((signatures[i] & missing) != 0) {
+                        rejections++;
+                        continue;
+                    }
+                }
+                int count = ++hits[slot];
+                if (count == 1) touched[touchedCount++] = slot;
+                if (count == termCounts[slot]) matchCount = matched(aSnapshot, slot, line, missing, scratch, matchCount, measured);
+            }
+        }
+        if (measured) {
+            for (int i = 0; i < touchedCount; i++) evaluated(aSnapshot, touched[i]);
+        }
+        // Reset only the counters this line has touched
+        for (int i = 0; i < touchedCount; i++) hits[touched[i]] = 0;
+        if (touchedCount > 0) slotEvaluations.add(touchedCount);
+        if (checks > 0) {
+            signatureChecks.add(checks);
+            signatureRejections.add(rejections);
+        }
+        for (IFilter filter : aSnapshot.unindexed) {
+            if (measured) metrics.filterEvaluated(filter.getFilterIdentifier());
+            if (filter.doMatch(line)) scratch.addMatch(matchCount++, filter.getFilterIdentifier());
+        }
+        int[] ret = Arrays.copyOf(scratch.matched, matchCount);
+        Arrays.sort(ret);
+        if (measured) {
+            for (int filterIdentifier : ret) metrics.filterHit(filterIdentifier);
+        }
+        return ret;
+    }
+
+    /**
+     * Reports the live members of a matching slot, then probes the extra terms of each of its live children
+     * whose signature fits the line, and reports the matching ones in turn.
+     *
+     * @param missing the complement of the line signature
+     * @return the number of identifiers matched so far
+     */
+    private int matched(Snapshot aSnapshot, int slot, LineTerms line, long missing, MatchScratch scratch, int matchCount, boolean measured) {
+        for (int member = aSnapshot.firstMember[slot]; member != NONE && member < aSnapshot.members; member = aSnapshot.nextMember[member])
+            if (!aSnapshot.memberRemoved[member]) scratch.addMatch(matchCount++, aSnapshot.filterIdentifiers[member]);
+        Posting list = aSnapshot.children[slot];
+        if (list == null) return matchCount;
+        int[] slots = list.slots;
+        long[] signatures = list.signatures;
+        int evaluations = 0;
+        for (int i = 0; i < slots.length; i++) {
+            int child = slots[i];
+            // Children are ascending: the remaining ones were added after this snapshot
+            if (child >= aSnapshot.size) break;
+            if ((signatures[i] & missing) != 0 || aSnapshot.termCounts[child] == REMOVED) continue;
+            evaluations++;
+            if (measured) evaluated(aSnapshot, child);
+            if (containsAll(line, aSnapshot.extraTerms[child]))
+                matchCount = matched(aSnapshot, child, line, missing, scratch, matchCount, measured);
+        }
+        if (evaluations > 0) slotEvaluations.add(evaluations);
+        return matchCount;
+    }
+
+    /**
+     * Evaluates the filters guarded by a term of the line, and reports the matching ones.
+     *
+     * @return the number of identifiers matched so far
+     */
+    private int matchGuarded(Snapshot aSnapshot, Guarded guard, LineTerms line, MatchScratch scratch, int matchCount, boolean measured) {
+        IFilter[] filters = guard.filters;
+        int[] sequences = guard.sequences;
+        for (int i = 0; i < filters.length; i++) {
+            // Sequence numbers are ascending: the remaining filters were guarded after this snapshot
+            if (sequences[i] >= aSnapshot.guards) break;
+            IFilter filter = filters[i];
+            if (measured) metrics.filterEvaluated(filter.getFilterIdentifier());
+            if (filter.doMatch(line)) scratch.addMatch(matchCount++, filter.getFilterIdentifier());
+        }
+        return matchCount;
+    }
+
+    private static boolean containsAll(LineTerms line, int[] termIds) {
+        for (int termId : termIds)
+            if (!line.contains(termId)) return false;
+        return true;
+    }
+
+    /**
+     * Counts an evaluation for each live member of a slot.
+     */
+    private void evaluated(Snapshot aSnapshot, int slot) {
+        if (aSnapshot.termCounts[slot] == REMOVED) return;
+        for (int member = aSnapshot.firstMember[slot]; member != NONE && member < aSnapshot.members; member = aSnapshot.nextMember[member])
+            if (!aSnapshot.memberRemoved[member]) metrics.filterEvaluated(aSnapshot.filterIdentifiers[member]);
+    }
+
+    /**
+     * Publishes the working state of the writer as the snapshot seen by new matches.
+     */
+    private void publish() {
+        snapshot = new Snapshot(postings, termCounts, firstMember, nextMember, filterIdentifiers, memberRemoved,
+                children, extraTerms, size, members, removed, unindexed, guarded, guards, guardOf.size());
+    }
+}
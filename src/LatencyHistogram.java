@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class counts durations in buckets of powers of two nanoseconds.
+ * Bucket 0 counts durations of 0 and bucket i, for i greater than 0, counts durations from 2^(i-1) to 2^i - 1 nanoseconds.
+ * Each bucket is a {@link LongAdder}, so threads recording durations concurrently do not contend on one counter.
+ * Percentiles are estimated as the upper bound of the bucket they fall into, i.e. within a factor of two.
+ */
+public class LatencyHistogram {
+    /**
+     * The number of buckets, enough for any non-negative long duration.
+     */
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+
+    /**
+     * Constructs an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        totalNanos = new LongAdder();
+    }
+
+    /**
+     * Counts one duration.
+     *
+     * @param nanos the duration in nanoseconds; negative durations are counted as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos))].increment();
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * Retrieves the number of durations counted in each bucket.
+     *
+     * @return a new array holding the count of each bucket
+     */
+    public long[] counts() {
+        long[] ret = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) ret[i] = buckets[i].sum();
+        return ret;
+    }
+
+    /**
+     * Retrieves the sum of all durations counted.
+     *
+     * @return the total duration in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Estimates a percentile of the durations counted in the given buckets.
+     *
+     * @param counts the count of each bucket, as returned by {@link #counts()}
+     * @param quantile the quantile, between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the upper bound in nanoseconds of the bucket holding the percentile; 0 if no duration was counted
+     */
+    public static long percentile(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
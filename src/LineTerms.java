@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+/**
+ * The LineTerms class holds the distinct term identifiers of one normalized log line.
+ * Tokens which are not in the {@link TermDictionary} are dropped, since no filter term can match them.
+ * An instance is meant to be reused from line to line by a single thread: clearing it only bumps a generation
+ * counter, and membership is answered by comparing the generation stamped on a term identifier,
+ * so neither building nor probing the set allocates or boxes.
+ * The set also maintains a 64-bit signature: the union of {@link #signatureBit(int)} over its term identifiers.
+ * A filter whose own signature has a bit missing from the line signature cannot match the line.
+ * <p>
+ * On request of the tokenizer, the set also keeps the normalized text of the line: all of its tokens in order,
+ * including the unknown ones, separated by single spaces, with a space before the first token and after the last one.
+ * Filters on token order or token prefixes ({@link IPatternFilter}) are matched against this text.
+ * <p>
+ * Finally, the set memoizes the values of the subexpressions shared by expression filters ({@link ExpressionTable}),
+ * with the same generation stamps, so that each of them is evaluated at most once per line.
+ */
+public class LineTerms {
+    /**
+     * The distinct term identifiers of the current line, in the order they were added.
+     */
+    int[] termIds;
+    /**
+     * Number of term identifiers of the current line.
+     */
+    int count;
+    /**
+     * Generation stamp of each term identifier; a term belongs to the current line when its stamp equals {@code generation}.
+     */
+    private int[] stamps;
+    /**
+     * Generation of the current line.
+     */
+    private int generation;
+    /**
+     * Union of the signature bits of the term identifiers of the current line.
+     */
+    long signature;
+    /**
+     * The normalized text of the current line, and its length; the length is -1 when the text was not kept.
+     */
+    char[] text;
+    int textLength;
+    /**
+     * Generation stamp and value of each memoized subexpression, by node identifier of an {@link ExpressionTable}.
+     */
+    private int[] memoStamps;
+    private boolean[] memoValues;
+
+    /**
+     * Constructs an empty, reusable set of line terms.
+     */
+    public LineTerms() {
+        termIds = new int[16];
+        stamps = new int[64];
+        generation = 1;
+        text = new char[128];
+        textLength = -1;
+        memoStamps = new int[16];
+        memoValues = new boolean[16];
+    }
+
+    /**
+     * Empties the set so that it can hold the terms of the next line.
+     */
+    public void clear() {
+        count = 0;
+        signature = 0;
+        textLength = -1;
+        if (++generation == 0) {
+            // The generation counter wrapped around; old stamps could collide with new generations
+            Arrays.fill(stamps, 0);
+            Arrays.fill(memoStamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Adds a term identifier to the current line. Adding an identifier which is already present has no effect.
+     *
+     * @param termId a term identifier of a {@link TermDictionary}
+     */
+    public void add(int termId) {
+        if (termId >= stamps.length) stamps = Arrays.copyOf(stamps, Math.max(termId + 1, stamps.length * 2));
+        if (stamps[termId] == generation) return;
+        stamps[termId] = generation;
+        signature |= signatureBit(termId);
+        if (count == termIds.length) termIds = Arrays.copyOf(termIds, count * 2);
+        termIds[count++] = termId;
+    }
+
+    /**
+     * Starts keeping the normalized text of the current line, which is empty until tokens are appended.
+     */
+    void startText() {
+        text[0] = ' ';
+        textLength = 1;
+    }
+
+    /**
+     * Appends a normalized token, followed by a space, to the text of the current line.
+     *
+     * @param token the buffer holding the characters of the token
+     * @param length the number of characters of the token
+     */
+    void appendText(char[] token, int length) {
+        if (textLength + length + 1 > text.length) text = Arrays.copyOf(text, Math.max(textLength + length + 1, text.length * 2));
+        System.arraycopy(token, 0, text, textLength, length);
+        textLength += length;
+        text[textLength++] = ' ';
+    }
+
+    /**
+     * Tells whether the normalized text of the current line was kept by the tokenizer.
+     *
+     * @return true if the text of the line is available
+     */
+    public boolean hasText() {
+        return textLength >= 0;
+    }
+
+    /**
+     * Checks whether the normalized text of the current line contains the given pattern.
+     *
+     * @param pattern a pattern such as " disk full " for a phrase or " err" for a token prefix
+     * @return true if the pattern occurs in the text of the line
+     * @throws IllegalStateException if the text of the line was not kept
+     */
+    public boolean containsText(String pattern) {
+        if (textLength < 0) throw new IllegalStateException("The text of the line was not kept by the tokenizer");
+        int length = pattern.length();
+        for (int i = 0; i + length <= textLength; i++) {
+            int j = 0;
+            while (j < length && text[i + j] == pattern.charAt(j)) j++;
+            if (j == length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the current line contains the given term identifier.
+     *
+     * @param termId a term identifier of a {@link TermDictionary}
+     * @return true if the term is present in the current line, false otherwise
+     */
+    public boolean contains(int termId) {
+        return termId < stamps.length && stamps[termId] == generation;
+    }
+
+    /**
+     * Retrieves the memoized value of a subexpression for the current line.
+     *
+     * @param node a node identifier of an {@link ExpressionTable}
+     * @return 1 if the subexpression is true, 0 if it is false, or -1 if it was not evaluated for this line yet
+     */
+    int memo(int node) {
+        if (node >= memoStamps.length || memoStamps[node] != generation) return -1;
+        return memoValues[node] ? 1 : 0;
+    }
+
+    /**
+     * Memoizes the value of a subexpression for the current line.
+     *
+     * @param node a node identifier of an {@link ExpressionTable}
+     * @param value the value of the subexpression
+     */
+    void memoize(int node, boolean value) {
+        if (node >= memoStamps.length) {
+            int length = Math.max(node + 1, memoStamps.length * 2);
+            memoStamps = Arrays.copyOf(memoStamps, length);
+            memoValues = Arrays.copyOf(memoValues, length);
+        }
+        memoStamps[node] = generation;
+        memoValues[node] = value;
+    }
+
+    /**
+     * Retrieves the number of distinct terms of the current line.
+     *
+     * @return the number of term identifiers in the set
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Retrieves the signature of the current line.
+     *
+     * @return the union of the signature bits of the term identifiers of the line
+     */
+    public long getSignature() {
+        return signature;
+    }
+
+    /**
+     * Maps a term identifier to one of the 64 bits of a signature.
+     * Identifiers are scattered by a multiplicative hash, as consecutive identifiers are interned together.
+     *
+     * @param termId a term identifier of a {@link TermDictionary}
+     * @return a long value with exactly one bit set
+     */
+    public static long signatureBit(int termId) {
+        return 1L << ((termId * 0x9E3779B9) >>> 26);
+    }
+
+    /**
+     * Retrieves the term identifier at the given position.
+     *
+     * @param index a position between 0 (inclusive) and {@link #size()} (exclusive)
+     * @return the term identifier at that position
+     */
+    public int get(int index) {
+        return termIds[index];
+    }
+}
@@ -0,0 +1,270 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The LineTokenizer class normalizes and tokenizes text in a single pass over its characters.
+ * It removes ASCII punctuation ({@code \p{Punct}}), splits on runs of spaces and folds the case of the tokens,
+ * producing the same tokens as {@code text.replaceAll("\\p{Punct}","").trim().toLowerCase().split("\s+")}.
+ * Note that {@code "\s+"} is a text literal with the space escape, i.e. the regular expression {@code " +"}:
+ * other whitespace characters such as tabs are kept within the tokens, and only trimmed at either end of the text.
+ * In particular, text without any token yields a single empty token.
+ * ASCII characters are folded directly; tokens containing other characters fall back to {@link String#toLowerCase(Locale)}.
+ * An instance reuses its token buffer and is therefore confined to one thread.
+ * <p>
+ * When the module jdk.incubator.vector is present, ASCII Strings are folded and classified a vector at a time by a
+ * {@link VectorNormalizer}, and only the spaces and punctuation it marks are handled one at a time; other lines take
+ * the scalar path, with the same tokens.
+ * Filters and log lines are both tokenized by this class so that they are normalized the same way.
+ */
+public class LineTokenizer {
+    /**
+     * Flags of the ASCII characters matched by {@code \p{Punct}}.
+     */
+    private static final boolean[] PUNCT = new boolean[128];
+    static {
+        for (char c : "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~".toCharArray()) PUNCT[c] = true;
+    }
+
+    /**
+     * The vector normalizer shared by the tokenizers, or null if the Vector API is not available.
+     */
+    static final AsciiNormalizer VECTOR = loadVectorNormalizer();
+    /**
+     * The minimum number of characters of a line normalized by the vector path; shorter lines are not worth copying.
+     */
+    static final int VECTOR_THRESHOLD = 16;
+
+    /**
+     * The locale used to fold the case of non-ASCII tokens.
+     */
+    private final Locale locale;
+    /**
+     * Whether ASCII upper case letters can be folded by adding 32; false for locales with special casing rules for 'I'.
+     */
+    private final boolean foldAscii;
+    /**
+     * The characters of the token being built.
+     */
+    private char[] buffer;
+    /**
+     * The normalizer of the ASCII lines of this tokenizer, or null to always take the scalar path.
+     */
+    AsciiNormalizer vector;
+    /**
+     * The characters of the line being normalized by the vector path, and their marks.
+     */
+    private char[] chars;
+    private long[] marks;
+
+    /**
+     * The dictionary translating tokens into term identifiers while tokenizing a log line.
+     */
+    private TermDictionary dictionary;
+    /**
+     * The line terms receiving the identifiers of the tokens while tokenizing a log line.
+     */
+    private LineTerms line;
+    /**
+     * The tokens collected while splitting a filter string, and their number.
+     */
+    private String[] tokens;
+    private int tokenCount;
+
+    /**
+     * Constructs a tokenizer folding case with the default locale, as {@link String#toLowerCase()} does.
+     */
+    public LineTokenizer() {
+        this(Locale.getDefault());
+    }
+
+    /**
+     * Constructs a tokenizer folding case with the given locale.
+     *
+     * @param locale the locale of the case folding rules
+     */
+    public LineTokenizer(Locale locale) {
+        this.locale = locale;
+        String language = locale.getLanguage();
+        foldAscii = !(language.equals("tr") || language.equals("az") || language.equals("lt"));
+        buffer = new char[64];
+        vector = (foldAscii ? VECTOR : null);
+    }
+
+    /**
+     * Loads the {@link VectorNormalizer} by name, so that this class does not depend on the incubating module.
+     *
+     * @return the vector normalizer, or null if the module jdk.incubator.vector is absent or the platform has no suitable vectors
+     */
+    private static AsciiNormalizer loadVectorNormalizer() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+        try {
+            return (AsciiNormalizer) Class.forName("VectorNormalizer").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tokenizes a range of the given text into the term identifiers of a log line.
+     * Tokens unknown to the dictionary are dropped, since no filter term can match them. No object is allocated
+     * unless a token contains non-ASCII characters.
+     *
+     * @param text the text holding the log line
+     * @param from the index of the first character of the log line
+     * @param to the index after the last character of the log line
+     * @param dictionary the term dictionary of the filters
+     * @param line the line terms to be cleared and filled with the term identifiers of the tokens
+     */
+    public void tokenize(CharSequence text, int from, int to, TermDictionary dictionary, LineTerms line) {
+        tokenize(text, from, to, dictionary, line, false);
+    }
+
+    /**
+     * Tokenizes a range of the given text into the term identifiers of a log line, optionally keeping the
+     * normalized text of the line in the line terms, as needed to match {@link IPatternFilter}s.
+     *
+     * @param text the text holding the log line
+     * @param from the index of the first character of the log line
+     * @param to the index after the last character of the log line
+     * @param dictionary the term dictionary of the filters
+     * @param line the line terms to be cleared and filled with the term identifiers of the tokens
+     * @param keepText true to keep the normalized text of the line, including the tokens unknown to the dictionary
+     */
+    public void tokenize(CharSequence text, int from, int to, TermDictionary dictionary, LineTerms line, boolean keepText) {
+        this.dictionary = dictionary;
+        this.line = line;
+        line.clear();
+        if (keepText) line.startText();
+        scan(text, from, to);
+        this.line = null;
+        this.dictionary = null;
+    }
+
+    /**
+     * Splits the given text into its normalized tokens.
+     *
+     * @param text the text to be tokenized, such as a filter string
+     * @return the normalized tokens in order of appearance, including duplicates
+     */
+    public String[] split(CharSequence text) {
+        tokens = new String[8];
+        tokenCount = 0;
+        scan(text, 0, text.length());
+        String[] ret = Arrays.copyOf(tokens, tokenCount);
+        tokens = null;
+        return ret;
+    }
+
+    /**
+     * Scans a range of the text and emits each of its tokens.
+     * Leading and trailing characters up to the space character are trimmed as by {@link String#trim()},
+     * after punctuation has been removed; within that range, tokens are separated by space characters only.
+     */
+    private void scan(CharSequence text, int from, int to) {
+        int start = from, end = to;
+        while (start < end && isTrimmed(text.charAt(start))) start++;
+        while (end > start && isTrimmed(text.charAt(end - 1))) end--;
+        if (vector != null && end - start >= VECTOR_THRESHOLD && text instanceof String && scanVector((String) text, start, end)) return;
+        int length = 0;
+        boolean ascii = true;
+        boolean emitted = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                if (c == ' ') {
+                    if (length > 0) {
+                        emit(length, ascii);
+                        emitted = true;
+                        length = 0;
+                        ascii = true;
+                    }
+                    continue;
+                }
+                if (PUNCT[c]) continue;
+                if (c >= 'A' && c <= 'Z') {
+                    if (foldAscii) c += 'a' - 'A';
+                    else ascii = false;
+                }
+            } else {
+                ascii = false;
+            }
+            if (length == buffer.length) buffer = Arrays.copyOf(buffer, length * 2);
+            buffer[length++] = c;
+        }
+        if (length > 0 || !emitted) emit(length, ascii);
+    }
+
+    /**
+     * Scans a trimmed range of an ASCII String with the vector normalizer: the characters are folded and marked
+     * a vector at a time, then the runs between marks are copied into the token buffer, spaces ending the tokens.
+     *
+     * @return false, without emitting anything, if the range holds a non-ASCII character
+     */
+    private boolean scanVector(String text, int start, int end) {
+        int n = end - start;
+        if (chars == null || chars.length < n) {
+            chars = new char[Math.max(n, 128)];
+            marks = new long[(chars.length + 63) >>> 6];
+        }
+        text.getChars(start, end, chars, 0);
+        if (!vector.normalize(chars, n, marks)) return false;
+        int length = 0;
+        int run = 0;
+        boolean emitted = false;
+        for (int w = 0, words = (n + 63) >>> 6; w < words; w++) {
+            for (long m = marks[w]; m != 0; m &= m - 1) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(m);
+                length = append(run, i, length);
+                run = i + 1;
+                if (chars[i] == ' ' && length > 0) {
+                    emit(length, true);
+                    emitted = true;
+                    length = 0;
+                }
+            }
+        }
+        length = append(run, n, length);
+        if (length > 0 || !emitted) emit(length, true);
+        return true;
+    }
+
+    /**
+     * Appends a range of the normalized characters to the token buffer.
+     *
+     * @return the new length of the token
+     */
+    private int append(int from, int to, int length) {
+        int count = to - from;
+        if (count <= 0) return length;
+        if (length + count > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        System.arraycopy(chars, from, buffer, length, count);
+        return length + count;
+    }
+
+    /**
+     * Emits the token held in the buffer, folding its case first if it is not plain ASCII.
+     */
+    private void emit(int length, boolean ascii) {
+        if (!ascii) {
+            String folded = new String(buffer, 0, length).toLowerCase(locale);
+            length = folded.length();
+            if (length > buffer.length) buffer = new char[length * 2];
+            folded.getChars(0, length, buffer, 0);
+        }
+        if (line != null) {
+            int termId = dictionary.lookup(buffer, 0, length);
+            if (termId >= 0) line.add(termId);
+            if (line.hasText()) line.appendText(buffer, length);
+        } else {
+            if (tokenCount == tokens.length) tokens = Arrays.copyOf(tokens, tokenCount * 2);
+            tokens[tokenCount++] = new String(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Checks whether a character at either end of the text is dropped: punctuation, or a character trimmed by {@link String#trim()}.
+     */
+    private static boolean isTrimmed(char c) {
+        return c <= ' ' || (c < 128 && PUNCT[c]);
+    }
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The LogLineEvent class is the JFR event recorded for each log line tokenized and matched while the metrics
+ * of a {@link StreamFilter} are enabled. Its duration covers tokenizing and matching the line.
+ */
+@Name("jstream.LogLine")
+@Label("Log Line")
+@Category("Stream Filter")
+@Description("A log line tokenized and matched against the filters")
+public class LogLineEvent extends jdk.jfr.Event {
+    @Label("Known Terms")
+    @Description("Number of distinct tokens of the line used by any filter")
+    int terms;
+
+    @Label("Matching Filters")
+    int matches;
+}
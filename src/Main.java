@@ -1,10 +1,22 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // Usage: Main <input file> [<output file>]; responses go to the standard output unless an output file is given
+        if (args.length > 0) {
+            filterFile(Path.of(args[0]), args.length > 1 ? Path.of(args[1]) : null);
+            return;
+        }
         //TIP Press <shortcut actionId="ShowIntentionActions"/> with your caret at the highlighted text
         // to see how IntelliJ IDEA suggests fixing it.
         System.out.printf("Hello and welcome!\n");
@@ -16,9 +28,20 @@ public class Main {
                             , "LOL: Our Earth is our World"
                             , "LOL: Our Earth is our World, Hello"
                         };
-        Stream.of(lines)
-                .map(aFilter::filter)
+        // Process the lines as one batch; responses come back in input order
+        Stream.of(aFilter.filterBatch(List.of(lines)))
                 .filter(Objects::nonNull)
                 .forEach(System.out::println);
     }
+
+    private static void filterFile(Path input, Path output) throws IOException {
+        MappedFileFilter aFilter = new MappedFileFilter(new StreamFilter());
+        if (output == null) {
+            aFilter.filterFile(input, new FileOutputStream(FileDescriptor.out).getChannel());
+            return;
+        }
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            aFilter.filterFile(input, out);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedFileFilter class processes a whole input file through a {@link StreamFilter}, working on bytes.
+ * The input is memory-mapped in chunks with a {@link FileChannel}; line boundaries and the "QF:"/"LOL:" prefixes
+ * are detected on the mapped bytes. ASCII log lines are tokenized straight from the mapping, and a String is only
+ * decoded for filter lines, lines of other kinds and non-ASCII log lines.
+ * Responses are the same as those of {@link StreamFilter#filter(String)}, one per line, and are gathered by a
+ * {@link ChannelSink} in a large buffer written to the output channel when full, instead of being printed line by line.
+ */
+public class MappedFileFilter {
+    /**
+     * The default size of the mapped chunks of the input file.
+     */
+    static final int CHUNK_SIZE = 64 << 20;
+
+    private static final byte[] LOL_PREFIX = "LOL:".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * A CharSequence view of ASCII bytes of a mapped chunk, so that the tokenizer can read them without decoding.
+     */
+    private static class AsciiView implements CharSequence {
+        ByteBuffer bytes;
+        int offset;
+        int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] chars = new byte[length];
+            bytes.get(offset, chars);
+            return new String(chars, StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * The filter processing the lines; it holds the filters defined so far.
+     */
+    private final StreamFilter streamFilter;
+    /**
+     * The size of the mapped chunks of the input file.
+     */
+    private final int chunkSize;
+    /**
+     * The reusable view of the log line being tokenized.
+     */
+    private final AsciiView view;
+    /**
+     * The sink writing the responses to the output channel while a file is processed.
+     */
+    private ChannelSink sink;
+
+    /**
+     * Constructs a MappedFileFilter processing lines through the given filter.
+     *
+     * @param streamFilter the filter processing the lines; filters it already holds apply to the file
+     */
+    public MappedFileFilter(StreamFilter streamFilter) {
+        this(streamFilter, CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a MappedFileFilter processing lines through the given filter, mapping the input in chunks of the given size.
+     * A line longer than a chunk is still processed, by mapping a larger chunk for it.
+     *
+     * @param streamFilter the filter processing the lines; filters it already holds apply to the file
+     * @param chunkSize the number of bytes of the input mapped at once
+     */
+    public MappedFileFilter(StreamFilter streamFilter, int chunkSize) {
+        this.streamFilter = streamFilter;
+        this.chunkSize = chunkSize;
+        view = new AsciiView();
+    }
+
+    /**
+     * Processes each line of the input file and writes the responses to the given channel, one per line.
+     * Lines are separated by "\n" or "\r\n". The channel is not closed.
+     *
+     * @param input the path of the input file
+     * @param out the channel receiving the responses
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    public void filterFile(Path input, WritableByteChannel out) throws IOException {
+        sink = new ChannelSink(out);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int mapSize = chunkSize;
+            while (position < size) {
+                int length = (int) Math.min(mapSize, size - position);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (chunk.get(i) == '\n') {
+                        processLine(chunk, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (last) {
+                    if (lineStart < length) processLine(chunk, lineStart, length);
+                    position = size;
+                } else if (lineStart == 0) {
+                    // The line does not fit into one chunk; map it again with a larger chunk
+                    if (mapSize == Integer.MAX_VALUE) throw new IOException("Line longer than 2GB at position " + position);
+                    mapSize = (int) Math.min(Integer.MAX_VALUE, 2L * mapSize);
+                } else {
+                    // Resume at the beginning of the incomplete line
+                    position += lineStart;
+                    mapSize = chunkSize;
+                }
+            }
+            sink.flush();
+        } finally {
+            sink = null;
+        }
+    }
+
+    /**
+     * Processes one line of a mapped chunk and buffers its response, if any.
+     */
+    private void processLine(ByteBuffer chunk, int from, int to) throws IOException {
+        if (to > from && chunk.get(to - 1) == '\r') to--;
+        if (startsWith(chunk, from, to, LOL_PREFIX) && isAscii(chunk, from, to)) {
+            processLogOfLine(chunk, from + LOL_PREFIX.length, to);
+            return;
+        }
+        // Filter lines, lines of other kinds and non-ASCII log lines go through the String path
+        byte[] bytes = new byte[to - from];
+        chunk.get(from, bytes);
+        streamFilter.filter(new String(bytes, StandardCharsets.UTF_8), sink);
+    }
+
+    /**
+     * Tokenizes and matches an ASCII log line straight from the mapped bytes.
+     * The response is written from the original bytes of the trimmed line.
+     */
+    private void processLogOfLine(ByteBuffer chunk, int from, int to) throws IOException {
+        MatchScratch aScratch = streamFilter.scratch.get();
+        view.bytes = chunk;
+        view.offset = from;
+        view.length = to - from;
+        int[] filterIdentifiers = streamFilter.matchLogOfLine(view, 0, view.length, aScratch);
+        view.bytes = null;
+        if (filterIdentifiers.length == 0) return;
+        // The line is ASCII, so trimming bytes is the same as String.trim()
+        while (from < to && (chunk.get(from) & 0xff) <= ' ') from++;
+        while (to > from && (chunk.get(to - 1) & 0xff) <= ' ') to--;
+        sink.lineMatched(chunk, from, to, filterIdentifiers);
+    }
+
+    private static boolean startsWith(ByteBuffer chunk, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (chunk.get(from + i) != prefix[i]) return false;
+        return true;
+    }
+
+    private static boolean isAscii(ByteBuffer chunk, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (chunk.get(i) < 0) return false;
+        return true;
+    }
+}
@@ -0,0 +1,241 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MatchCache class remembers the filters matched by recent log lines, keyed by the set of their term identifiers,
+ * so that a line repeated over and over (heartbeats, health checks, the same error) is matched once.
+ * <p>
+ * The cache is a 2-way set-associative table of immutable entries, read and written without locks.
+ * A line is only admitted on its second miss, remembered by a fingerprint, so lines seen once never evict anything;
+ * within a set, the entry with fewer hits is evicted and the other one has its hits halved, so old favorites age.
+ * The entries are bounded both in number and in estimated bytes.
+ * <p>
+ * Entries are tagged with the epoch of the filter set they were computed with. Changing the filters bumps the epoch,
+ * which invalidates all the entries at once; stale entries are evicted first.
+ */
+public class MatchCache {
+    /**
+     * The default number of entries of the cache of a {@link StreamFilter}.
+     */
+    static final int DEFAULT_ENTRIES = 4096;
+    /**
+     * The default bound of the estimated memory used by the entries of the cache of a {@link StreamFilter}.
+     */
+    static final long DEFAULT_BYTES = 16L << 20;
+    /**
+     * The estimated memory used by an entry besides its arrays: the entry and the headers of its two arrays.
+     */
+    private static final int ENTRY_BYTES = 72;
+
+    /**
+     * A cached result: the distinct term identifiers of the line, in any order, and the identifiers of its matching filters.
+     */
+    private static final class Entry {
+        final long hash;
+        final int epoch;
+        final int[] termIds;
+        final int[] filterIdentifiers;
+        /**
+         * Number of hits of the entry, halved when it survives an eviction in its set. Updates may be lost under contention.
+         */
+        int hits;
+
+        Entry(long hash, int epoch, int[] termIds, int[] filterIdentifiers) {
+            this.hash = hash;
+            this.epoch = epoch;
+            this.termIds = termIds;
+            this.filterIdentifiers = filterIdentifiers;
+        }
+
+        int bytes() {
+            return ENTRY_BYTES + 4 * (termIds.length + filterIdentifiers.length);
+        }
+    }
+
+    /**
+     * The entries, two per set; the set of a line is given by the low bits of its hash.
+     */
+    private final AtomicReferenceArray<Entry> entries;
+    /**
+     * The fingerprint of the last line which missed in each set without being admitted.
+     */
+    private final int[] doorkeeper;
+    private final int setMask;
+    private final long maxBytes;
+    /**
+     * The estimated memory used by the entries.
+     */
+    private final AtomicLong bytes;
+    private final AtomicInteger epoch;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * Constructs a cache holding at most the given number of entries and estimated bytes.
+     *
+     * @param maxEntries the maximum number of entries, rounded to a power of 2; 0 disables the cache
+     * @param maxBytes the bound of the estimated memory used by the entries
+     */
+    public MatchCache(int maxEntries, long maxBytes) {
+        // Two entries per set, and a power of 2 of sets
+        int half = Math.max(1, maxEntries / 2);
+        int sets = (maxEntries <= 0 ? 0 : half == 1 ? 1 : Integer.highestOneBit(half - 1) << 1);
+        entries = new AtomicReferenceArray<>(sets * 2);
+        doorkeeper = new int[sets];
+        setMask = sets - 1;
+        this.maxBytes = maxBytes;
+        bytes = new AtomicLong();
+        epoch = new AtomicInteger();
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    /**
+     * Tells whether the cache can hold entries.
+     *
+     * @return false if the cache was created without entries
+     */
+    public boolean isEnabled() {
+        return doorkeeper.length > 0;
+    }
+
+    /**
+     * Retrieves the current epoch of the filter set. It must be read before matching a line whose result is then
+     * {@link #put(LineTerms, long, int, int[]) put} into the cache, so that a result computed with older filters is never served.
+     *
+     * @return the current epoch
+     */
+    public int getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Invalidates all the entries, after the filter set was changed and published to the log lines.
+     */
+    public void invalidate() {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Hashes the set of term identifiers of a line, independently of their order.
+     *
+     * @param line the term identifiers of a normalized line
+     * @return the hash of the set of term identifiers
+     */
+    public static long hash(LineTerms line) {
+        long ret = line.size();
+        for (int i = 0; i < line.size(); i++) {
+            long z = (line.get(i) + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 32)) * 0xD6E8FEB86659FD93L;
+            ret += z ^ (z >>> 32);
+        }
+        return ret;
+    }
+
+    /**
+     * Looks up the filters matched by a line with the same terms during the given epoch.
+     *
+     * @param line the term identifiers of a normalized line
+     * @param hash the hash of the line, see {@link #hash(LineTerms)}
+     * @param anEpoch the epoch read before looking up
+     * @return the identifiers of the matching filters in ascending order, which must not be modified, or null on a miss
+     */
+    public int[] get(LineTerms line, long hash, int anEpoch) {
+        if (doorkeeper.length == 0) return null;
+        int set = (int) hash & setMask;
+        for (int way = 0; way < 2; way++) {
+            Entry entry = entries.get(set * 2 + way);
+            if (entry != null && entry.hash == hash && entry.epoch == anEpoch && sameTerms(entry.termIds, line)) {
+                entry.hits++;
+                hits.increment();
+                return entry.filterIdentifiers;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the filters matched by a line, if the line missed recently and the entry fits in the memory bound.
+     *
+     * @param line the term identifiers of a normalized line
+     * @param hash the hash of the line, see {@link #hash(LineTerms)}
+     * @param anEpoch the epoch read before the line was matched
+     * @param filterIdentifiers the identifiers of the matching filters in ascending order, which must not be modified afterwards
+     */
+    public void put(LineTerms line, long hash, int anEpoch, int[] filterIdentifiers) {
+        if (doorkeeper.length == 0) return;
+        int set = (int) hash & setMask;
+        int fingerprint = (int) (hash >>> 32) | 1;
+        if (doorkeeper[set] != fingerprint) {
+            // First miss: only remember the line, so that lines seen once do not evict anything
+            doorkeeper[set] = fingerprint;
+            return;
+        }
+        doorkeeper[set] = 0;
+        int current = epoch.get();
+        if (anEpoch != current) return;
+        Entry first = entries.get(set * 2), second = entries.get(set * 2 + 1);
+        int way;
+        if (first == null || first.epoch != current) way = 0;
+        else if (second == null || second.epoch != current) way = 1;
+        else way = (first.hits <= second.hits ? 0 : 1);
+        Entry victim = (way == 0 ? first : second);
+        Entry survivor = (way == 0 ? second : first);
+        int[] termIds = new int[line.size()];
+        for (int i = 0; i < termIds.length; i++) termIds[i] = line.get(i);
+        Entry entry = new Entry(hash, anEpoch, termIds, filterIdentifiers);
+        long delta = entry.bytes() - (victim == null ? 0 : victim.bytes());
+        if (delta > 0 && bytes.get() + delta > maxBytes) return;
+        if (!entries.compareAndSet(set * 2 + way, victim, entry)) return;
+        bytes.addAndGet(delta);
+        if (survivor != null) survivor.hits >>= 1;
+    }
+
+    private static boolean sameTerms(int[] termIds, LineTerms line) {
+        // Both sets hold distinct identifiers, so equal sizes and inclusion make them equal
+        if (termIds.length != line.size()) return false;
+        for (int termId : termIds)
+            if (!line.contains(termId)) return false;
+        return true;
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the number of lookups which had to match the line.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the fraction of the lookups answered from the cache; 0 if there was no lookup.
+     *
+     * @return the hit ratio
+     */
+    public double getHitRatio() {
+        long aHits = getHits(), total = aHits + getMisses();
+        return total == 0 ? 0 : (double) aHits / total;
+    }
+
+    /**
+     * Retrieves the estimated memory used by the entries, including stale ones.
+     *
+     * @return the estimated number of bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * The MatchScratch class holds the reusable buffers needed to tokenize and match one log line.
+ * Matching itself only reads the filters and the index, so any number of threads can match lines concurrently
+ * as long as each of them uses its own MatchScratch instance.
+ */
+public class MatchScratch {
+    /**
+     * The tokenizer normalizing the log lines of this thread.
+     */
+    final LineTokenizer tokenizer;
+    /**
+     * The term identifiers of the log line being matched.
+     */
+    final LineTerms lineTerms;
+    /**
+     * Per-slot hit counters of the {@link InvertedIndex}. Only the touched slots are non-zero
+     * during a match and they are reset before the match returns.
+     */
+    int[] hits;
+    /**
+     * Slots whose hit counter was incremented while matching the current line.
+     */
+    int[] touched;
+    /**
+     * Identifiers of the filters matched so far by the current line.
+     */
+    int[] matched;
+    /**
+     * Generation stamp of each pattern of the {@link PatternIndex}; a pattern was found in the current line when its
+     * stamp equals {@link #patternGeneration}.
+     */
+    private int[] patternStamps;
+    int patternGeneration;
+    /**
+     * Term counts of the lines sampled by this thread and not merged into the {@link TermStatistics} yet,
+     * indexed by term identifier, with the number of those lines and the number of lines seen since the last sample.
+     */
+    int[] sampledTermCounts;
+    int sampledLines;
+    int linesSinceSample;
+
+    /**
+     * Constructs the buffers of one matching thread.
+     */
+    public MatchScratch() {
+        tokenizer = new LineTokenizer();
+        lineTerms = new LineTerms();
+        hits = new int[16];
+        touched = new int[16];
+        matched = new int[16];
+        patternStamps = new int[16];
+        sampledTermCounts = new int[64];
+    }
+
+    /**
+     * Makes sure the hit counters can hold the given number of index slots.
+     *
+     * @param slots the number of slots of the index being matched
+     */
+    void ensureSlots(int slots) {
+        if (hits.length < slots) {
+            int capacity = Math.max(slots, hits.length * 2);
+            hits = new int[capacity];
+            touched = new int[capacity];
+        }
+    }
+
+    /**
+     * Starts a new generation of the pattern stamps, so that no pattern is marked as found in the current line.
+     *
+     * @param patterns the number of patterns of the automaton being matched
+     * @return the pattern stamps, holding at least the given number of stamps
+     */
+    int[] patternStamps(int patterns) {
+        if (patternStamps.length < patterns) patternStamps = new int[Math.max(patterns, patternStamps.length * 2)];
+        if (++patternGeneration == 0) {
+            // The generation counter wrapped around; old stamps could collide with new generations
+            Arrays.fill(patternStamps, 0);
+            patternGeneration = 1;
+        }
+        return patternStamps;
+    }
+
+    /**
+     * Appends a filter identifier to the matched identifiers.
+     *
+     * @param count the number of identifiers matched so far
+     * @param filterIdentifier the identifier of the matching filter
+     */
+    void addMatch(int count, int filterIdentifier) {
+        if (count == matched.length) matched = Arrays.copyOf(matched, count * 2);
+        matched[count] = filterIdentifier;
+    }
+}
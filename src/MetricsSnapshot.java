@@ -0,0 +1,158 @@
+import java.util.Map;
+
+/**
+ * The MetricsSnapshot class holds the values of the {@link FilterMetrics} of a {@link StreamFilter} at one point in time.
+ * Rates are computed between two snapshots, e.g. {@link #getLogLinesPerSecond(MetricsSnapshot)}.
+ * Counters are read one after the other while lines may be processed, so they can be off by the lines in flight.
+ */
+public class MetricsSnapshot {
+    final long nanoTime;
+    final long logLines;
+    final long matchedLines;
+    final long filterChanges;
+    final long reportedMatches;
+    final long tokenizeNanos;
+    final long matchNanos;
+    final long[] lineLatency;
+    final long[] matchLatency;
+    final Map<Integer, Long> filterEvaluations;
+    final Map<Integer, Long> filterHits;
+
+    MetricsSnapshot(long nanoTime, long logLines, long matchedLines, long filterChanges, long reportedMatches,
+                    long tokenizeNanos, long matchNanos, long[] lineLatency, long[] matchLatency,
+                    Map<Integer, Long> filterEvaluations, Map<Integer, Long> filterHits) {
+        this.nanoTime = nanoTime;
+        this.logLines = logLines;
+        this.matchedLines = matchedLines;
+        this.filterChanges = filterChanges;
+        this.reportedMatches = reportedMatches;
+        this.tokenizeNanos = tokenizeNanos;
+        this.matchNanos = matchNanos;
+        this.lineLatency = lineLatency;
+        this.matchLatency = matchLatency;
+        this.filterEvaluations = filterEvaluations;
+        this.filterHits = filterHits;
+    }
+
+    /**
+     * Retrieves the value of System.nanoTime() when the snapshot was taken.
+     *
+     * @return the value of System.nanoTime() when the snapshot was taken
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * Retrieves the number of log lines processed.
+     *
+     * @return the number of log lines processed
+     */
+    public long getLogLines() {
+        return logLines;
+    }
+
+    /**
+     * Retrieves the number of log lines matched by at least one filter.
+     *
+     * @return the number of log lines matched by at least one filter
+     */
+    public long getMatchedLines() {
+        return matchedLines;
+    }
+
+    /**
+     * Retrieves the fraction of the log lines matched by at least one filter; 0 if no line was processed.
+     *
+     * @return the fraction of the log lines matched by at least one filter; 0 if no line was processed
+     */
+    public double getMatchRate() {
+        return logLines == 0 ? 0 : (double) matchedLines / logLines;
+    }
+
+    /**
+     * Retrieves the number of filters added, removed or updated.
+     *
+     * @return the number of filters added, removed or updated
+     */
+    public long getFilterChanges() {
+        return filterChanges;
+    }
+
+    /**
+     * Retrieves the number of filter identifiers reported for the matched log lines.
+     *
+     * @return the number of filter identifiers reported for the matched log lines
+     */
+    public long getReportedMatches() {
+        return reportedMatches;
+    }
+
+    /**
+     * Retrieves the total time spent tokenizing log lines, in nanoseconds.
+     *
+     * @return the total time spent tokenizing log lines, in nanoseconds
+     */
+    public long getTokenizeNanos() {
+        return tokenizeNanos;
+    }
+
+    /**
+     * Retrieves the total time spent matching tokenized log lines against the filters, in nanoseconds.
+     *
+     * @return the total time spent matching tokenized log lines against the filters, in nanoseconds
+     */
+    public long getMatchNanos() {
+        return matchNanos;
+    }
+
+    /**
+     * Estimates a percentile of the time of processing (tokenizing and matching) a log line.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated percentile in nanoseconds, within a factor of two
+     */
+    public long getLineLatencyPercentile(double quantile) {
+        return LatencyHistogram.percentile(lineLatency, quantile);
+    }
+
+    /**
+     * Estimates a percentile of the time of matching a tokenized log line.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated percentile in nanoseconds, within a factor of two
+     */
+    public long getMatchLatencyPercentile(double quantile) {
+        return LatencyHistogram.percentile(matchLatency, quantile);
+    }
+
+    /**
+     * Retrieves the number of times each filter was evaluated: the filters sharing a term with a log line
+     * are counted by the inverted index, and the filters which cannot be indexed are evaluated for every line.
+     *
+     * @return an unmodifiable map of the number of evaluations, by filter identifier
+     */
+    public Map<Integer, Long> getFilterEvaluations() {
+        return filterEvaluations;
+    }
+
+    /**
+     * Retrieves the number of log lines each filter matched, by filter identifier.
+     *
+     * @return an unmodifiable map of the number of log lines each filter matched, by filter identifier
+     */
+    public Map<Integer, Long> getFilterHits() {
+        return filterHits;
+    }
+
+    /**
+     * Computes the number of log lines processed per second since an earlier snapshot.
+     *
+     * @param since an earlier snapshot of the same metrics
+     * @return the number of log lines per second; 0 if no time elapsed
+     */
+    public double getLogLinesPerSecond(MetricsSnapshot since) {
+        long nanos = nanoTime - since.nanoTime;
+        return nanos <= 0 ? 0 : (logLines - since.logLines) * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,432 @@
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The PatternIndex class compiles the patterns of all registered {@link IPatternFilter}s into a single Aho-Corasick
+ * automaton over the characters of the normalized text of a log line (see {@link LineTerms}).
+ * A line is scanned once, whatever the number of pattern filters: each pattern found reports the filters having it,
+ * and a filter matches once all of its distinct patterns were found, counted per filter as in the {@link InvertedIndex}.
+ * <p>
+ * The index is safe for concurrent use. Filters are added and removed under a lock, and each change ends by publishing
+ * an immutable {@link Snapshot} through a volatile field, so a match started after a filter was added or removed sees
+ * that change. Changes do not compile the automaton again, which costs the length of all the patterns: a filter added
+ * since the last compilation is kept in a short list of pending filters, evaluated directly with
+ * {@link IPatternFilter#doMatch(LineTerms)}, and a removed filter leaves a tombstone in the automaton, found through
+ * a map and never matching again. Once {@link #MAX_PENDING} filters are pending or most of the filters of the automaton
+ * are removed, a background thread compiles the automaton of the live filters, so that a stream alternating filter
+ * lines and log lines compiles it once per batch of filters instead of once per filter.
+ */
+public class PatternIndex {
+    /**
+     * The number of pending filters from which the automaton is compiled again.
+     */
+    static final int MAX_PENDING = 32;
+    /**
+     * The pattern count of a removed filter. A line finds a pattern of a filter at least once before its count is
+     * compared, so a removed filter never matches.
+     */
+    static final int REMOVED = 0;
+
+    /**
+     * The thread compiling the automata in the background. It is a daemon thread, so it never keeps the JVM alive.
+     */
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "PatternIndex-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The compiled automaton of a set of pattern filters. States are numbered from 0, the root.
+     */
+    static final class Automaton {
+        /**
+         * The transitions of the trie, in an open addressing table keyed by state and character.
+         * Keys are offset by one, so that 0 marks a free entry.
+         */
+        final long[] keys;
+        final int[] targets;
+        final int mask;
+        /**
+         * The state reached on a failure from each state: the longest proper suffix of its text which is a state.
+         */
+        final int[] fail;
+        /**
+         * The pattern spelled by each state, or -1.
+         */
+        final int[] pattern;
+        /**
+         * The nearest state along the failure chain of each state which spells a pattern, or -1.
+         */
+        final int[] output;
+        /**
+         * The slots of the filters having each pattern.
+         */
+        final int[][] patternSlots;
+        /**
+         * Filter identifier of each filter, indexed by slot.
+         */
+        final int[] filterIdentifiers;
+        /**
+         * Number of distinct patterns of each filter, indexed by slot; {@link #REMOVED} once the filter was removed.
+         * Published snapshots share this array, and see a removal as if it had happened before them.
+         */
+        final int[] patternCounts;
+
+        Automaton(long[] keys, int[] targets, int[] fail, int[] pattern, int[] output,
+                  int[][] patternSlots, int[] filterIdentifiers, int[] patternCounts) {
+            this.keys = keys;
+            this.targets = targets;
+            this.mask = keys.length - 1;
+            this.fail = fail;
+            this.pattern = pattern;
+            this.output = output;
+            this.patternSlots = patternSlots;
+            this.filterIdentifiers = filterIdentifiers;
+            this.patternCounts = patternCounts;
+        }
+
+        /**
+         * Follows the trie transition of a state on a character.
+         *
+         * @return the next state, or -1 if the trie has no such transition
+         */
+        int transition(int state, char c) {
+            long key = key(state, c);
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) return targets[i];
+                if (k == 0) return -1;
+            }
+        }
+    }
+
+    /**
+     * An immutable view of the index as it was after a change: the latest compiled automaton, and the filters
+     * added since it was compiled.
+     */
+    static final class Snapshot {
+        final Automaton automaton;
+        final IPatternFilter[] pending;
+        /**
+         * Number of live filters, in the automaton or pending.
+         */
+        final int size;
+
+        Snapshot(Automaton automaton, IPatternFilter[] pending, int size) {
+            this.automaton = automaton;
+            this.pending = pending;
+            this.size = size;
+        }
+    }
+
+    private static final int[] NO_MATCH = new int[0];
+
+    /**
+     * The latest published snapshot, read once by each match.
+     */
+    volatile Snapshot snapshot;
+    /**
+     * The metrics counting the evaluations and hits of each filter while they are enabled.
+     */
+    private final FilterMetrics metrics;
+
+    /*
+     * The working state of the writer. It is only accessed while holding the lock of this index.
+     */
+    private Automaton automaton;
+    /**
+     * The slot in the automaton of each live filter compiled into it.
+     */
+    private final Map<IPatternFilter, Integer> slotOf;
+    /**
+     * The live filters added since the automaton was compiled, in the order they were added.
+     */
+    private final Set<IPatternFilter> pending;
+    /**
+     * Number of filters of the automaton which were removed.
+     */
+    private int removed;
+    /**
+     * Whether a compilation has been handed to the background thread and has not started yet.
+     */
+    private boolean compilationScheduled;
+
+    /**
+     * Constructs an empty pattern index.
+     */
+    public PatternIndex() {
+        this(new FilterMetrics());
+    }
+
+    /**
+     * Constructs an empty pattern index reporting the evaluations and hits of each filter to the given metrics.
+     * A filter is evaluated by a line when at least one of its patterns occurs in the line, or always while it is pending.
+     *
+     * @param metrics the metrics of the filters; nothing is reported while they are disabled
+     */
+    public PatternIndex(FilterMetrics metrics) {
+        this.metrics = metrics;
+        slotOf = new IdentityHashMap<>();
+        pending = new LinkedHashSet<>();
+        automaton = compile(List.of());
+        publish();
+    }
+
+    /**
+     * Registers a filter with the index, as a pending filter until the automaton is compiled again.
+     * The filter becomes visible to the matches started after this method returns.
+     *
+     * @param filter the filter to be registered
+     */
+    public synchronized void addFilter(IPatternFilter filter) {
+        pending.add(filter);
+        publish();
+        scheduleCompilation();
+    }
+
+    /**
+     * Removes a filter from the index. The filter no longer matches the lines whose match starts after this method returns.
+     * A filter of the automaton is left as a tombstone until the automaton is compiled again.
+     *
+     * @param filter the filter to be removed, as registered
+     * @return true if the filter was removed, false if it was not registered
+     */
+    public synchronized boolean removeFilter(IPatternFilter filter) {
+        if (!remove(filter)) return false;
+        publish();
+        scheduleCompilation();
+        return true;
+    }
+
+    /**
+     * Replaces a registered filter by another one, usually with the same identifier.
+     * The matches started after this method returns see the replacement instead of the filter.
+     *
+     * @param filter the filter to be removed, as registered
+     * @param replacement the filter to be registered instead
+     * @return true if the filter was replaced, false if it was not registered and nothing changed
+     */
+    public synchronized boolean replaceFilter(IPatternFilter filter, IPatternFilter replacement) {
+        if (!remove(filter)) return false;
+        pending.add(replacement);
+        publish();
+        scheduleCompilation();
+        return true;
+    }
+
+    /**
+     * Compiles the automaton of the live filters, so that no filter is pending and no tombstone is left.
+     * It runs in the background once enough filters are pending or removed; calling it directly compiles right away.
+     * Matches in progress keep using the automaton of their snapshot.
+     */
+    public synchronized void compile() {
+        compilationScheduled = false;
+        if (pending.isEmpty() && removed == 0) return;
+        // The live filters of the automaton keep their order, followed by the pending ones
+        IPatternFilter[] bySlot = new IPatternFilter[automaton.filterIdentifiers.length];
+        slotOf.forEach((filter, slot) -> bySlot[slot] = filter);
+        List<IPatternFilter> live = new ArrayList<>(slotOf.size() + pending.size());
+        for (IPatternFilter filter : bySlot)
+            if (filter != null) live.add(filter);
+        live.addAll(pending);
+        automaton = compile(live);
+        slotOf.clear();
+        for (int slot = 0; slot < live.size(); slot++) slotOf.put(live.get(slot), slot);
+        pending.clear();
+        removed = 0;
+        publish();
+    }
+
+    /**
+     * Retrieves the number of registered filters.
+     *
+     * @return the number of filters
+     */
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Finds the identifiers of all registered filters matching the given line, scanning its normalized text once,
+     * then evaluating the pending filters one by one.
+     *
+     * @param line the normalized text of a line, kept by the tokenizer
+     * @param scratch the buffers of the calling thread
+     * @return the identifiers of the matching filters in ascending order; an empty array if none matched or the line has no text
+     */
+    public int[] match(LineTerms line, MatchScratch scratch) {
+        if (!line.hasText()) return NO_MATCH;
+        Snapshot aSnapshot = snapshot;
+        Automaton anAutomaton = aSnapshot.automaton;
+        int slots = anAutomaton.filterIdentifiers.length;
+        if (slots == 0 && aSnapshot.pending.length == 0) return NO_MATCH;
+        scratch.ensureSlots(slots);
+        int[] hits = scratch.hits;
+        int[] touched = scratch.touched;
+        int[] stamps = scratch.patternStamps(anAutomaton.patternSlots.length);
+        int generation = scratch.patternGeneration;
+        char[] text = line.text;
+        int length = line.textLength;
+        int matchCount = 0;
+        int touchedCount = 0;
+        int state = 0;
+        for (int i = 0; slots > 0 && i < length; i++) {
+            char c = text[i];
+            int next;
+            while ((next = anAutomaton.transition(state, c)) < 0 && state != 0) state = anAutomaton.fail[state];
+            state = next < 0 ? 0 : next;
+            for (int s = anAutomaton.pattern[state] >= 0 ? state : anAutomaton.output[state]; s >= 0; s = anAutomaton.output[s]) {
+                int p = anAutomaton.pattern[s];
+                // A pattern occurring several times counts once
+                if (stamps[p] == generation) continue;
+                stamps[p] = generation;
+                for (int slot : anAutomaton.patternSlots[p]) {
+                    int count = ++hits[slot];
+                    if (count == 1) touched[touchedCount++] = slot;
+                    if (count == anAutomaton.patternCounts[slot]) scratch.addMatch(matchCount++, anAutomaton.filterIdentifiers[slot]);
+                }
+            }
+        }
+        boolean measured = metrics.enabled;
+        if (measured) {
+            for (int i = 0; i < touchedCount; i++)
+                if (anAutomaton.patternCounts[touched[i]] != REMOVED) metrics.filterEvaluated(anAutomaton.filterIdentifiers[touched[i]]);
+        }
+        // Reset only the counters this line has touched
+        for (int i = 0; i < touchedCount; i++) hits[touched[i]] = 0;
+        for (IPatternFilter filter : aSnapshot.pending) {
+            if (measured) metrics.filterEvaluated(filter.getFilterIdentifier());
+            if (filter.doMatch(line)) scratch.addMatch(matchCount++, filter.getFilterIdentifier());
+        }
+        if (matchCount == 0) return NO_MATCH;
+        int[] ret = Arrays.copyOf(scratch.matched, matchCount);
+        Arrays.sort(ret);
+        if (measured) {
+            for (int filterIdentifier : ret) metrics.filterHit(filterIdentifier);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes a filter from the working state: from the pending filters, or as a tombstone of the automaton.
+     */
+    private boolean remove(IPatternFilter filter) {
+        if (pending.remove(filter)) return true;
+        Integer slot = slotOf.remove(filter);
+        if (slot == null) return false;
+        // Published snapshots share this array; they see the removal as if it had happened before them
+        automaton.patternCounts[slot] = REMOVED;
+        removed++;
+        return true;
+    }
+
+    /**
+     * Hands a compilation to the background thread if enough filters are pending or removed and none is scheduled.
+     */
+    private void scheduleCompilation() {
+        if (compilationScheduled || (pending.size() < MAX_PENDING && removed * 2 <= automaton.filterIdentifiers.length)) return;
+        compilationScheduled = true;
+        COMPILER.execute(this::compile);
+    }
+
+    /**
+     * Publishes the working state of the writer as the snapshot seen by new matches.
+     */
+    private void publish() {
+        snapshot = new Snapshot(automaton, pending.toArray(new IPatternFilter[0]), slotOf.size() + pending.size());
+    }
+
+    /**
+     * Builds the trie of the distinct patterns of the filters, then links each state to its failure state
+     * in breadth-first order, and finally packs the transitions into an open addressing table.
+     */
+    private static Automaton compile(List<IPatternFilter> filters) {
+        int[] filterIdentifiers = new int[filters.size()];
+        int[] patternCounts = new int[filters.size()];
+        Map<String, Integer> patternIds = new HashMap<>();
+        List<List<Integer>> slotsOfPattern = new ArrayList<>();
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> patternOfState = new ArrayList<>();
+        children.add(new HashMap<>());
+        patternOfState.add(-1);
+        for (int slot = 0; slot < filters.size(); slot++) {
+            IPatternFilter filter = filters.get(slot);
+            filterIdentifiers[slot] = filter.getFilterIdentifier();
+            patternCounts[slot] = filter.getPatterns().length;
+            for (String aPattern : filter.getPatterns()) {
+                Integer p = patternIds.get(aPattern);
+                if (p == null) {
+                    p = patternIds.size();
+                    patternIds.put(aPattern, p);
+                    slotsOfPattern.add(new ArrayList<>());
+                    int state = 0;
+                    for (int i = 0; i < aPattern.length(); i++) {
+                        Integer next = children.get(state).get(aPattern.charAt(i));
+                        if (next == null) {
+                            next = children.size();
+                            children.add(new HashMap<>());
+                            patternOfState.add(-1);
+                            children.get(state).put(aPattern.charAt(i), next);
+                        }
+                        state = next;
+                    }
+                    patternOfState.set(state, p);
+                }
+                slotsOfPattern.get(p).add(slot);
+            }
+        }
+        int states = children.size();
+        int[] fail = new int[states];
+        int[] pattern = new int[states];
+        int[] output = new int[states];
+        for (int state = 0; state < states; state++) pattern[state] = patternOfState.get(state);
+        output[0] = -1;
+        int transitions = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                char c = child.getKey();
+                int next = child.getValue();
+                transitions++;
+                int f = 0;
+                if (state != 0) {
+                    f = fail[state];
+                    while (f != 0 && !children.get(f).containsKey(c)) f = fail[f];
+                    f = children.get(f).getOrDefault(c, 0);
+                }
+                fail[next] = f;
+                output[next] = pattern[f] >= 0 ? f : output[f];
+                queue.add(next);
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(4, transitions * 2 - 1)) << 1;
+        long[] keys = new long[capacity];
+        int[] targets = new int[capacity];
+        for (int state = 0; state < states; state++) {
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                long key = key(state, child.getKey());
+                int i = hash(key) & (capacity - 1);
+                while (keys[i] != 0) i = (i + 1) & (capacity - 1);
+                keys[i] = key;
+                targets[i] = child.getValue();
+            }
+        }
+        int[][] patternSlots = new int[slotsOfPattern.size()][];
+        for (int p = 0; p < patternSlots.length; p++)
+            patternSlots[p] = slotsOfPattern.get(p).stream().mapToInt(Integer::intValue).toArray();
+        return new Automaton(keys, targets, fail, pattern, output, patternSlots, filterIdentifiers, patternCounts);
+    }
+
+    private static long key(int state, char c) {
+        return (((long) state << 16) | c) + 1;
+    }
+
+    private static int hash(long key) {
+        // Multiplicative hashing; the high bits are the best mixed
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+}
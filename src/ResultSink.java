@@ -0,0 +1,53 @@
+import java.io.IOException;
+
+/**
+ * The ResultSink interface receives the responses of a {@link StreamFilter} as they are produced,
+ * so that they can be written to their destination directly instead of being built into a String first.
+ * Each method receives one response. The sinks {@link AppendableSink} and {@link ChannelSink} write it in the format
+ * described in the Readme, e.g. "M:" followed by the log line, "; FID=" and the identifiers of the matching filters.
+ */
+public interface ResultSink {
+    /**
+     * Receives the response to a filter description line ("QF:"): a filter has been created.
+     *
+     * @param filter the new filter
+     * @throws IOException if the response cannot be written
+     */
+    public void filterAdded(IFilter filter) throws IOException;
+
+    /**
+     * Receives the response to a filter removal line ("RF:"): a filter has been removed.
+     *
+     * @param filter the removed filter
+     * @throws IOException if the response cannot be written
+     */
+    public void filterRemoved(IFilter filter) throws IOException;
+
+    /**
+     * Receives the response to a filter update line ("UF:"): the terms of a filter have been replaced.
+     *
+     * @param filter the new filter, holding the identifier of the replaced one
+     * @throws IOException if the response cannot be written
+     */
+    public void filterUpdated(IFilter filter) throws IOException;
+
+    /**
+     * Receives the response to a log line ("LOL:") matched by at least one filter.
+     * The log line is given as a range of characters, so that no substring has to be created for it.
+     *
+     * @param line the characters holding the log line
+     * @param from the index of the first character of the trimmed log line, after its prefix
+     * @param to the index after the last character of the trimmed log line
+     * @param filterIdentifiers the identifiers of the matching filters, in ascending order; the array may be shared and must not be modified
+     * @throws IOException if the response cannot be written
+     */
+    public void lineMatched(CharSequence line, int from, int to, int[] filterIdentifiers) throws IOException;
+
+    /**
+     * Receives a line without any known prefix, which is answered with the line itself.
+     *
+     * @param line the unknown line
+     * @throws IOException if the response cannot be written
+     */
+    public void lineUnknown(String line) throws IOException;
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ShardedStreamFilter class processes the same lines as a {@link StreamFilter}, with the same responses,
+ * but splits its filters into shards, each one matched by its own worker thread.
+ * <p>
+ * Each shard is a StreamFilter holding part of the filters. A new filter goes to the shard given by a hash of its
+ * identifier; shards sharing the term dictionary and the expression table, a filter can move from one shard to another,
+ * which rebalances them when removals left one much larger than another. "RF:" and "UF:" lines go to the shard holding
+ * the filter, and identifiers are assigned by one counter shared by all shards.
+ * <p>
+ * Log lines are scattered to all shards in batches, through one bounded {@link SpscQueue} per shard, and each shard
+ * matches the whole batch against its filters on its worker thread. The sorted identifiers found by the shards
+ * for a line are then gathered by a k-way merge into one sorted list. Filter lines are barriers: all the batches sent
+ * before them are gathered first, so a log line is matched against exactly the filters defined before it.
+ * <p>
+ * Lines are processed by one thread at a time; the methods are synchronized. The workers are daemon threads,
+ * which run until {@link #close()} is called.
+ */
+public class ShardedStreamFilter implements AutoCloseable {
+    /**
+     * The maximum number of log lines sent to the shards at once by {@link #filterBatch(List)}.
+     */
+    static final int BATCH_SIZE = 64;
+    /**
+     * The number of batches each shard can have waiting before the producer gathers the oldest ones.
+     */
+    static final int QUEUE_CAPACITY = 16;
+    /**
+     * The smallest difference of size between the largest and the smallest shards which is rebalanced.
+     */
+    static final int REBALANCE_THRESHOLD = 16;
+    /**
+     * The batch telling a worker to stop.
+     */
+    private static final Batch STOP = new Batch(new String[0], 0, 0);
+
+    /**
+     * Log lines sent to all the shards together, with the identifiers matched by each shard.
+     */
+    static final class Batch {
+        final String[] lines;
+        /**
+         * The position of the first line of the batch in the input of {@link #filterBatch(List)}.
+         */
+        final int offset;
+        /**
+         * The identifiers of the filters of each shard matching each line, indexed by shard then by line.
+         */
+        final int[][][] results;
+        /**
+         * Counted down by each shard once it matched all the lines.
+         */
+        final CountDownLatch done;
+        volatile Throwable failure;
+
+        Batch(String[] lines, int offset, int shardCount) {
+            this.lines = lines;
+            this.offset = offset;
+            results = new int[shardCount][lines.length][];
+            done = new CountDownLatch(shardCount);
+        }
+    }
+
+    /**
+     * The shards, each one holding part of the filters.
+     */
+    final StreamFilter[] shards;
+    /**
+     * The queue of the batches of each shard, from the calling thread to the worker of the shard.
+     */
+    private final SpscQueue<Batch>[] queues;
+    private final Thread[] workers;
+    /**
+     * The identifier of the last filter created, shared by all shards.
+     */
+    private final AtomicInteger lastFilterIdentifier;
+    private boolean closed;
+
+    /**
+     * Constructs a ShardedStreamFilter with one shard per available processor.
+     */
+    public ShardedStreamFilter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a ShardedStreamFilter with the given number of shards, and starts their worker threads.
+     *
+     * @param shardCount the number of shards, at least 1
+     * @throws IllegalArgumentException if the number of shards is less than 1
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedStreamFilter(int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("Invalid shard count " + shardCount);
+        TermDictionary dictionary = new TermDictionary();
+        ExpressionTable expressions = new ExpressionTable(dictionary);
+        lastFilterIdentifier = new AtomicInteger();
+        shards = new StreamFilter[shardCount];
+        queues = (SpscQueue<Batch>[]) new SpscQueue<?>[shardCount];
+        workers = new Thread[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new StreamFilter(dictionary, expressions, MatchCache.DEFAULT_ENTRIES, MatchCache.DEFAULT_BYTES);
+            shards[i].lastFilterIdentifier = lastFilterIdentifier;
+            queues[i] = new SpscQueue<>(QUEUE_CAPACITY);
+            int shard = i;
+            workers[i] = new Thread(() -> work(shard), "ShardedStreamFilter-shard-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Retrieves the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Processes a given input line like {@link StreamFilter#filter(String)}.
+     *
+     * @param line the input line to be processed; it should start with "QF:", "QP:", "QX:", "LOL:", "RF:" or "UF:".
+     * @return the processed output string for the given line, or null if it has no response
+     */
+    public String filter(String line) {
+        StringBuilder ret = new StringBuilder();
+        try {
+            return (filter(line, new AppendableSink(ret, "")) ? ret.toString() : null);
+        } catch (IOException e) {
+            // Appending to a StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Processes a given input line like {@link StreamFilter#filter(String, ResultSink)}.
+     * A log line is matched by all shards in parallel, as a batch of one line.
+     *
+     * @param line the input line to be processed; it should start with "QF:", "QP:", "QX:", "LOL:", "RF:" or "UF:".
+     * @param sink the sink receiving the response
+     * @return true if the line has a response, false if it has none (a log line without a match, or an unknown filter identifier)
+     * @throws IOException if the sink cannot write the response
+     * @throws IllegalStateException if this ShardedStreamFilter was closed
+     */
+    public synchronized boolean filter(String line, ResultSink sink) throws IOException {
+        if (closed) throw new IllegalStateException("ShardedStreamFilter closed");
+        if (line.startsWith("LOL:")) {
+            Batch batch = new Batch(new String[]{line}, 0, shards.length);
+            scatter(batch, null, null);
+            await(batch);
+            int[] filterIdentifiers = gather(batch, 0);
+            if (filterIdentifiers.length == 0) return false;
+            StreamFilter.prepareMatchLog(line, "LOL:".length(), filterIdentifiers, sink);
+            return true;
+        }
+        if (line.startsWith("QF:") || line.startsWith("QP:") || line.startsWith("QX:")) {
+            // The filter gets the next identifier in the shard it hashes to
+            boolean ret = shards[shardOf(lastFilterIdentifier.get() + 1)].filter(line, sink);
+            rebalance();
+            return ret;
+        }
+        if (line.startsWith("RF:") || line.startsWith("UF:")) {
+            // Only the shard holding the filter has a response
+            for (StreamFilter shard : shards)
+                if (shard.filter(line, sink)) return true;
+            return false;
+        }
+        sink.lineUnknown(line);
+        return true;
+    }
+
+    /**
+     * Processes a batch of input lines like {@link StreamFilter#filterBatch(List)}.
+     * Runs of log lines are cut into batches of {@link #BATCH_SIZE} lines, which are all scattered to the shards before
+     * their results are gathered, so the shards keep matching while earlier batches are merged.
+     *
+     * @param lines the input lines to be processed, in input order
+     * @return an array holding the response of each input line at the same position, or null where there is no response
+     * @throws IllegalStateException if this ShardedStreamFilter was closed
+     */
+    public synchronized String[] filterBatch(List<String> lines) {
+        if (closed) throw new IllegalStateException("ShardedStreamFilter closed");
+        String[] ret = new String[lines.size()];
+        ArrayDeque<Batch> pending = new ArrayDeque<>();
+        int i = 0;
+        while (i < lines.size()) {
+            if (!lines.get(i).startsWith("LOL:")) {
+                // Filter lines are barriers
+                while (!pending.isEmpty()) complete(pending.poll(), ret);
+                ret[i] = filter(lines.get(i));
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < lines.size() && end - i < BATCH_SIZE && lines.get(end).startsWith("LOL:")) end++;
+            Batch batch = new Batch(lines.subList(i, end).toArray(new String[0]), i, shards.length);
+            scatter(batch, pending, ret);
+            pending.add(batch);
+            i = end;
+        }
+        while (!pending.isEmpty()) complete(pending.poll(), ret);
+        return ret;
+    }
+
+    /**
+     * Stops the worker threads once they matched the batches already sent. Lines can no longer be processed afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (SpscQueue<Batch> queue : queues)
+            while (!queue.offer(STOP)) Thread.onSpinWait();
+    }
+
+    /**
+     * Tells the shard receiving the filter with the given identifier, by a hash of the identifier.
+     */
+    int shardOf(int filterIdentifier) {
+        int x = filterIdentifier * 0x9E3779B9;
+        return Math.floorMod(x ^ (x >>> 16), shards.length);
+    }
+
+    /**
+     * Moves filters from the largest shard to the smallest one, until their sizes differ by at most the larger of
+     * {@link #REBALANCE_THRESHOLD} and an eighth of the average size. No batch is in flight, so no line sees a moved filter twice or not at all.
+     */
+    private void rebalance() {
+        int total = 0;
+        for (StreamFilter shard : shards) total += shard.filters.size();
+        int threshold = Math.max(REBALANCE_THRESHOLD, total / shards.length / 8);
+        while (true) {
+            StreamFilter largest = shards[0], smallest = shards[0];
+            for (StreamFilter shard : shards) {
+                if (shard.filters.size() > largest.filters.size()) largest = shard;
+                if (shard.filters.size() < smallest.filters.size()) smallest = shard;
+            }
+            if (largest.filters.size() - smallest.filters.size() <= threshold) return;
+            // Each move narrows the gap by two filters
+            int moved = (largest.filters.size() - smallest.filters.size() - threshold + 1) / 2;
+            for (int j = 0; j < moved; j++) {
+                largest.moveFilter(largest.filters.keySet().iterator().next(), smallest);
+            }
+        }
+    }
+
+    /**
+     * Sends a batch to all shards. When the queue of a shard is full, the oldest pending batch is completed first.
+     */
+    private void scatter(Batch batch, ArrayDeque<Batch> pending, String[] responses) {
+        for (SpscQueue<Batch> queue : queues) {
+            while (!queue.offer(batch)) {
+                if (pending != null && !pending.isEmpty()) complete(pending.poll(), responses);
+                else Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Waits for all the shards to match a batch, then writes the response of each of its lines.
+     */
+    private void complete(Batch batch, String[] responses) {
+        await(batch);
+        StringBuilder text = new StringBuilder();
+        AppendableSink sink = new AppendableSink(text, "");
+        for (int i = 0; i < batch.lines.length; i++) {
+            int[] filterIdentifiers = gather(batch, i);
+            if (filterIdentifiers.length == 0) continue;
+            text.setLength(0);
+            try {
+                StreamFilter.prepareMatchLog(batch.lines[i], "LOL:".length(), filterIdentifiers, sink);
+            } catch (IOException e) {
+                // Appending to a StringBuilder does not throw
+                throw new UncheckedIOException(e);
+            }
+            responses[batch.offset + i] = text.toString();
+        }
+    }
+
+    /**
+     * Waits for all the shards to match a batch.
+     *
+     * @throws IllegalStateException if a shard failed, or if the calling thread was interrupted, which keeps its interrupt status
+     */
+    private static void await(Batch batch) {
+        try {
+            batch.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        }
+        if (batch.failure != null) throw new IllegalStateException("A shard failed to match the log lines", batch.failure);
+    }
+
+    /**
+     * Merges the ascending identifiers found by each shard for a line of a batch. A filter is held by one shard,
+     * so the lists are disjoint; the smallest head of the lists is taken each time.
+     */
+    private static int[] gather(Batch batch, int line) {
+        int[][] lists = new int[batch.results.length][];
+        int count = 0, total = 0;
+        for (int[][] shardResults : batch.results) {
+            int[] list = shardResults[line];
+            if (list.length > 0) lists[count++] = list;
+            total += list.length;
+        }
+        if (count == 0) return new int[0];
+        if (count == 1) return lists[0];
+        int[] heads = new int[count];
+        int[] ret = new int[total];
+        for (int k = 0; k < total; k++) {
+            int min = -1;
+            for (int j = 0; j < count; j++)
+                if (heads[j] < lists[j].length && (min < 0 || lists[j][heads[j]] < lists[min][heads[min]])) min = j;
+            ret[k] = lists[min][heads[min]++];
+        }
+        return ret;
+    }
+
+    /**
+     * Matches the batches of one shard until it is stopped, with its own tokenizer and buffers.
+     */
+    private void work(int shard) {
+        StreamFilter aShard = shards[shard];
+        SpscQueue<Batch> queue = queues[shard];
+        MatchScratch aScratch = new MatchScratch();
+        try {
+            for (Batch batch = queue.take(); batch != STOP; batch = queue.take()) {
+                try {
+                    for (int i = 0; i < batch.lines.length; i++) {
+                        String line = batch.lines[i];
+                        batch.results[shard][i] = aShard.matchLogOfLine(line, "LOL:".length(), line.length(), aScratch);
+                    }
+                } catch (Throwable e) {
+                    batch.failure = e;
+                } finally {
+                    batch.done.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Nothing else interrupts a worker; it stops
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The SpscQueue class is a bounded queue between exactly one producer thread and one consumer thread,
+ * such as the queue of batches of log lines of one shard of a {@link ShardedStreamFilter}.
+ * <p>
+ * The elements are kept in a ring buffer indexed by two ever-increasing counters: the producer only writes the tail
+ * and the consumer only writes the head, so neither side takes a lock. A consumer finding the queue empty spins briefly,
+ * then parks until the producer unparks it.
+ *
+ * @param <E> the type of the elements
+ */
+public class SpscQueue<E> {
+    /**
+     * The number of times an empty queue is polled again before the consumer parks.
+     */
+    private static final int SPINS = 256;
+
+    private final Object[] buffer;
+    private final int mask;
+    /**
+     * The number of elements taken so far, written by the consumer only.
+     */
+    private final AtomicLong head;
+    /**
+     * The number of elements offered so far, written by the producer only.
+     */
+    private final AtomicLong tail;
+    /**
+     * The consumer, while it is parked or about to park on an empty queue.
+     */
+    private volatile Thread waiting;
+
+    /**
+     * Constructs an empty queue holding at most the given number of elements.
+     *
+     * @param capacity the maximum number of elements, rounded up to a power of 2
+     */
+    public SpscQueue(int capacity) {
+        int size = (capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+        buffer = new Object[size];
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Appends an element, unless the queue is full. Only the producer thread calls this method.
+     *
+     * @param element the element to be appended, not null
+     * @return true if the element was appended, false if the queue is full
+     */
+    public boolean offer(E element) {
+        long t = tail.get();
+        if (t - head.get() == buffer.length) return false;
+        buffer[(int) t & mask] = element;
+        // The volatile write publishes the element, and orders the read of the waiting consumer after it
+        tail.set(t + 1);
+        Thread consumer = waiting;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element, waiting for one if the queue is empty. Only the consumer thread calls this method.
+     *
+     * @return the oldest element
+     * @throws InterruptedException if the consumer is interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public E take() throws InterruptedException {
+        long h = head.get();
+        int spins = 0;
+        while (tail.get() == h) {
+            if (spins++ < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            waiting = Thread.currentThread();
+            // Checked again after announcing the wait, so an element offered meanwhile is never missed
+            if (tail.get() == h) LockSupport.park(this);
+            waiting = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        int index = (int) h & mask;
+        E ret = (E) buffer[index];
+        buffer[index] = null;
+        head.set(h + 1);
+        return ret;
+    }
+
+    /**
+     * Retrieves the number of elements in the queue, which may be outdated as soon as it is returned.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+}
@@ -1,9 +1,40 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * The StreamFilter class is responsible for processing lines of input and handling them in two ways:
  * defining filters and processing log lines against those filters. Filters created by the
  * class are stored internally and matched against log lines based on their tokens.
+ * <p>
+ * A StreamFilter can be shared by threads processing lines concurrently. Filter identifiers are assigned atomically,
+ * and log lines are matched against an immutable snapshot of the filters without taking any lock,
+ * so they never see a half-registered filter. A line always sees the filters whose "QF:" line was processed
+ * before it by the same thread; filters registered concurrently by other threads may or may not be seen.
+ * <p>
+ * Filters can be removed ("RF:" lines) or replaced ("UF:" lines). Identifiers are never reused, so the identifier
+ * of a filter stays the same for its whole life, including across replacements.
+ * <p>
+ * Besides the "QF:" filters, matching all of their terms in any order, "QP:" lines define phrase filters ({@link FilterPhrase})
+ * and "QX:" lines prefix filters ({@link FilterPrefix}). These are matched by a {@link PatternIndex} scanning the
+ * normalized text of each log line once, whatever their number.
+ * <p>
+ * A "QF:" line using parentheses or the operators AND, OR and NOT defines a boolean expression filter ({@link FilterExpression}).
+ * The expressions of all filters are compiled by one {@link ExpressionTable}, so that a subexpression common to
+ * several filters is evaluated once per log line.
+ * <p>
+ * A sample of the log lines feeds {@link TermStatistics}. Each time new estimates are published, the filters are
+ * reordered in the background so that their rarest terms are probed first; this only changes the cost of matching.
+ * <p>
+ * The filters matched through the inverted index by recent log lines are kept in a {@link MatchCache}, keyed by the
+ * term identifiers of the lines, so that repeated lines are matched once. Changing the indexed filters invalidates it.
  */
 public class StreamFilter {
     /**
@@ -15,6 +46,60 @@ public class StreamFilter {
      * enabling efficient storage and retrieval of filters for processing input lines and evaluating matches.
      */
     Map<Integer, IFilter> filters;
+    /**
+     * The identifier of the last filter created; identifiers start with 1 and are never reused, even after a removal.
+     */
+    AtomicInteger lastFilterIdentifier;
+    /**
+     * The inverted index over the terms of all registered filters.
+     * Log lines are matched through this index so that only the filters sharing a token with the line are considered.
+     */
+    InvertedIndex index;
+    /**
+     * The automaton over the patterns of all registered phrase and prefix filters.
+     */
+    PatternIndex patterns;
+    /**
+     * The dictionary interning the terms of all filters. Log line tokens are translated through it into term identifiers.
+     */
+    TermDictionary dictionary;
+    /**
+     * The table compiling the expressions of all expression filters, sharing their common subexpressions.
+     */
+    ExpressionTable expressions;
+    /**
+     * The reusable tokenizer and matching buffers of each thread processing log lines.
+     */
+    ThreadLocal<MatchScratch> scratch;
+    /**
+     * The metrics of this StreamFilter; they are disabled until {@link FilterMetrics#setEnabled(boolean)} is called.
+     */
+    FilterMetrics metrics;
+    /**
+     * The minimum number of consecutive log lines of a batch which are matched in parallel.
+     * Shorter runs are matched on the calling thread, as splitting them costs more than it saves.
+     */
+    static final int PARALLEL_THRESHOLD = 64;
+    /**
+     * The thread reordering the filters in the background. It is a daemon thread, so it never keeps the JVM alive.
+     */
+    private static final ExecutorService OPTIMIZER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "StreamFilter-optimizer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The estimated frequencies of the filter terms in the log lines, from a sample of the lines.
+     */
+    TermStatistics statistics;
+    /**
+     * Whether a reordering of the filters has been handed to the background thread and has not finished yet.
+     */
+    private final AtomicBoolean optimizing;
+    /**
+     * The filters matched through the inverted index by recent log lines, by set of term identifiers.
+     */
+    MatchCache cache;
 
     /**
      * Constructs a new instance of the StreamFilter class.
@@ -23,100 +108,561 @@ public class StreamFilter {
      * for further operations such as adding filters and evaluating log lines.
      */
     public StreamFilter(){
-        filters=new HashMap<>();
+        this(MatchCache.DEFAULT_ENTRIES,MatchCache.DEFAULT_BYTES);
+    }
+
+    /**
+     * Constructs a new instance of the StreamFilter class with a match cache of the given size.
+     *
+     * @param cacheEntries the maximum number of log lines whose matches are cached; 0 disables the cache
+     * @param cacheBytes the bound of the estimated memory used by the cached matches
+     */
+    public StreamFilter(int cacheEntries,long cacheBytes){
+        this(new TermDictionary(),cacheEntries,cacheBytes);
+    }
+
+    private StreamFilter(TermDictionary dictionary,int cacheEntries,long cacheBytes){
+        this(dictionary,new ExpressionTable(dictionary),cacheEntries,cacheBytes);
+    }
+
+    /**
+     * Constructs a StreamFilter sharing its term dictionary and its expression table with other StreamFilters,
+     * e.g. one shard of a {@link ShardedStreamFilter}. A filter created by one of them can be moved to another one
+     * with {@link #addFilter(IFilter)}, as its term and expression node identifiers stay valid.
+     *
+     * @param dictionary the term dictionary, which may be shared with other StreamFilters
+     * @param expressions the expression table over the dictionary, shared with the same StreamFilters
+     * @param cacheEntries the maximum number of log lines whose matches are cached; 0 disables the cache
+     * @param cacheBytes the bound of the estimated memory used by the cached matches
+     */
+    StreamFilter(TermDictionary dictionary,ExpressionTable expressions,int cacheEntries,long cacheBytes){
+        cache=new MatchCache(cacheEntries,cacheBytes);
+        filters=new ConcurrentHashMap<>();
+        lastFilterIdentifier=new AtomicInteger();
+        metrics=new FilterMetrics();
+        index=new InvertedIndex(metrics);
+        patterns=new PatternIndex(metrics);
+        this.dictionary=dictionary;
+        this.expressions=expressions;
+        scratch=ThreadLocal.withInitial(MatchScratch::new);
+        statistics=new TermStatistics();
+        optimizing=new AtomicBoolean();
     }
 
     /**
      * Processes a given input line by delegating to specific processing methods based on the line's prefix.
-     * If the line starts with "QF:", it is processed as a filter definition.
+     * If the line starts with "QF:", it is processed as a filter definition; "QP:" and "QX:" define phrase and prefix filters.
      * If the line starts with "LOL:", it is processed as a log line and evaluated against existing filters.
+     * If the line starts with "RF:" or "UF:", the filter with the given identifier is removed or replaced.
+     * This is a convenience adapter building the response written by {@link #filter(String, ResultSink)} into a String.
      *
-     * @param line the input line to be processed; it should start with either "QF:" or "LOL:".
+     * @param line the input line to be processed; it should start with "QF:", "QP:", "QX:", "LOL:", "RF:" or "UF:".
      * @return the processed output string for the given line:
-     *         - For lines with prefix "QF:", a description of the created filter.
+     *         - For lines with prefix "QF:", "QP:" or "QX:", a description of the created filter.
      *         - For lines with prefix "LOL:", a formatted string if it matches any filters, or null if no match is found.
+     *         - For lines with prefix "RF:" or "UF:", a description of the removed or updated filter,
+     *           or null if there is no filter with the given identifier.
      */
     public String filter(String line){
-        String ret = line;
-        //System.out.println(line);
-        if(line.startsWith("QF:"))
-            ret = processFilter(line.substring("QF:".length()));
-        else if(line.startsWith("LOL:"))
-            ret = processLogOfLine(line.substring("LOL:".length()));
+        StringBuilder ret = new StringBuilder();
+        try {
+            return (filter(line,new AppendableSink(ret,"")) ? ret.toString() : null);
+        } catch (IOException e) {
+            // Appending to a StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Processes a given input line like {@link #filter(String)}, handing its response, if any, to the given sink.
+     * The response is never built as a String: the sink receives the filter, or the log line and the sorted
+     * identifiers of the matching filters.
+     *
+     * @param line the input line to be processed; it should start with "QF:", "QP:", "QX:", "LOL:", "RF:" or "UF:".
+     * @param sink the sink receiving the response
+     * @return true if the line has a response, false if it has none (a log line without a match, or an unknown filter identifier)
+     * @throws IOException if the sink cannot write the response
+     */
+    public boolean filter(String line,ResultSink sink) throws IOException {
+        if(line.startsWith("QF:") || line.startsWith("QP:") || line.startsWith("QX:")){
+            sink.filterAdded(processFilter(line.substring(0,"QF:".length()),line.substring("QF:".length())));
+            return true;
+        }
+        if(line.startsWith("LOL:"))
+            return processLogOfLine(line,"LOL:".length(),sink);
+        IFilter aFilter;
+        if(line.startsWith("RF:")){
+            aFilter = processRemoveFilter(line.substring("RF:".length()));
+            if(aFilter!=null) sink.filterRemoved(aFilter);
+            return aFilter!=null;
+        }
+        if(line.startsWith("UF:")){
+            aFilter = processUpdateFilter(line.substring("UF:".length()));
+            if(aFilter!=null) sink.filterUpdated(aFilter);
+            return aFilter!=null;
+        }
+        sink.lineUnknown(line);
+        return true;
+    }
+
+    /**
+     * Retrieves the metrics of this StreamFilter, which are disabled by default.
+     * Once enabled, they count the lines and matches, time the tokenizing and matching of the log lines,
+     * count the evaluations and hits of each filter and record JFR events.
+     *
+     * @return the metrics of this StreamFilter
+     */
+    public FilterMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Saves the filters of this StreamFilter, with their identifiers and the term dictionary, to a binary snapshot file,
+     * see {@link FilterSnapshot}. Filters changed while saving may or may not be included.
+     *
+     * @param path the path of the snapshot file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void saveFilters(Path path) throws IOException {
+        FilterSnapshot.save(this,path);
+    }
+
+    /**
+     * Creates a StreamFilter holding the filters saved by {@link #saveFilters(Path)}, without replaying the filter lines.
+     * The filters keep their identifiers, and new filters get identifiers after the last one saved.
+     *
+     * @param path the path of the snapshot file
+     * @return a new StreamFilter holding the saved filters
+     * @throws IOException if the file cannot be read, is not a snapshot, has another format version or is corrupted
+     */
+    public static StreamFilter loadFilters(Path path) throws IOException {
+        return FilterSnapshot.load(path);
+    }
+
+    /**
+     * Retrieves the cache of the filters matched by recent log lines, which counts its hits and misses.
+     *
+     * @return the match cache of this StreamFilter
+     */
+    public MatchCache getMatchCache(){
+        return cache;
+    }
+
+    /**
+     * Enables or disables the signature check of the inverted index, which skips the filters sharing a term with a log line
+     * but missing one of their other terms before evaluating them. It does not change which filters match; it is disabled by default.
+     *
+     * @param enabled true to skip the filters whose term signature is not a subset of the line signature
+     */
+    public void setSignatureFilter(boolean enabled){
+        index.setSignatureFilter(enabled);
+    }
+
+    /**
+     * Tells whether the signature check of the inverted index is enabled.
+     *
+     * @return true if the signature check is enabled
+     */
+    public boolean isSignatureFilter(){
+        return index.isSignatureFilter();
+    }
+
+    /**
+     * Retrieves the number of filters checked against the signature of a log line since this StreamFilter was created.
+     *
+     * @return the number of signature checks
+     */
+    public long getSignatureChecks(){
+        return index.getSignatureChecks();
+    }
+
+    /**
+     * Retrieves the number of filters rejected by the signature check since this StreamFilter was created,
+     * i.e. the number of filter evaluations saved by the signatures.
+     *
+     * @return the number of signature rejections
+     */
+    public long getSignatureRejections(){
+        return index.getSignatureRejections();
+    }
+
+    /**
+     * Processes a batch of input lines and returns their responses in input order.
+     * The result is the same as calling {@link #filter(String)} on each line in turn: "QF:" lines act as barriers,
+     * so each log line is matched against exactly the filters defined before it. Runs of consecutive "LOL:" lines
+     * between two filter lines are matched in parallel across the available cores.
+     *
+     * @param lines the input lines to be processed, in input order
+     * @return an array holding the response of each input line at the same position, or null where there is no response
+     */
+    public String[] filterBatch(List<String> lines){
+        String[] ret = new String[lines.size()];
+        int i = 0;
+        while(i<lines.size()){
+            // Find the run of log lines starting at i
+            int end = i;
+            while(end<lines.size() && lines.get(end).startsWith("LOL:")) end++;
+            if(end==i){
+                ret[i] = filter(lines.get(i));
+                i++;
+                continue;
+            }
+            IntStream run = IntStream.range(i,end);
+            if(end-i>=PARALLEL_THRESHOLD) run = run.parallel();
+            run.forEach(x -> ret[x] = filter(lines.get(x)));
+            i = end;
+        }
         return ret;
     }
 
     /**
-     * Processes a filter line with the prefix "QF:", normalizes it, creates a new filter, and stores it in the filter set.
-     * Returns a formatted string containing the normalized line and the associated filter identifier.
+     * Processes a filter line with the prefix "QF:", "QP:" or "QX:", normalizes it, creates a new filter, and stores it in the filter set.
      *
-     * @param line the input line with the prefix "QF:" to be normalized and used to create a new filter
-     * @return a formatted string indicating the normalized line and the identifier of the created filter
+     * @param prefix the prefix of the line, telling the kind of filter
+     * @param line the input line without its prefix, to be normalized and used to create a new filter
+     * @return the created filter, holding its normalized terms and its identifier
      */
-    private String processFilter(String line){
-        String ret ;
+    private IFilter processFilter(String prefix,String line){
+        FilterChangeEvent event = (metrics.enabled ? beginFilterChange() : null);
         // Extract the filter string from the line
         String normalizedLine = line.trim();
-        //synchronized - begin
-        int filterIdentifier = filters.size()+1;
-        IFilter aFilter = new FilterMatchAll(filterIdentifier,normalizedLine);
-        filters.put(filterIdentifier,aFilter);
-        //synchronized - end
-        ret = "A:"+aFilter.getTerms()+"; FID="+filterIdentifier;
+        int filterIdentifier = lastFilterIdentifier.incrementAndGet();
+        IFilter aFilter = createFilter(prefix,filterIdentifier,normalizedLine);
+        addFilter(aFilter);
+        if(event!=null) endFilterChange(event,prefix.substring(0,2),aFilter);
+        return aFilter;
+    }
+
+    /**
+     * Registers a filter which was already created, under its own identifier.
+     * The filter must have been created with the term dictionary and the expression table of this StreamFilter,
+     * e.g. by another StreamFilter sharing them.
+     *
+     * @param aFilter the filter to be registered
+     */
+    void addFilter(IFilter aFilter){
+        filters.put(aFilter.getFilterIdentifier(),aFilter);
+        // Publishes the filter to the log lines atomically
+        if(aFilter instanceof IPatternFilter) patterns.addFilter((IPatternFilter) aFilter);
+        else addIndexedFilter(aFilter);
+    }
+
+    /**
+     * Processes a filter removal line with the prefix "RF:", holding the identifier of the filter to be removed.
+     *
+     * @param line the input line with the prefix "RF:" holding a filter identifier
+     * @return the removed filter, or null if the identifier is malformed or unknown
+     */
+    private IFilter processRemoveFilter(String line){
+        Integer filterIdentifier = parseFilterIdentifier(line.trim());
+        return (filterIdentifier!=null ? removeFilter(filterIdentifier) : null);
+    }
+
+    /**
+     * Processes a filter update line with the prefix "UF:", holding the identifier of a filter followed by its new terms.
+     *
+     * @param line the input line with the prefix "UF:" holding a filter identifier and the new filter terms
+     * @return the new filter, or null if the identifier is malformed or unknown
+     */
+    private IFilter processUpdateFilter(String line){
+        String normalizedLine = line.trim();
+        int separator = normalizedLine.indexOf(' ');
+        if(separator<0) separator = normalizedLine.length();
+        Integer filterIdentifier = parseFilterIdentifier(normalizedLine.substring(0,separator));
+        return (filterIdentifier!=null ? replaceFilter(filterIdentifier,normalizedLine.substring(separator)) : null);
+    }
+
+    /**
+     * Creates a filter of the kind given by the prefix of its line.
+     *
+     * A "QF:" filter string which is not a valid expression, e.g. with an unbalanced parenthesis, is read as plain terms,
+     * as it was before expressions were supported.
+     *
+     * @param prefix "QP:" for a phrase filter, "QX:" for a prefix filter, or "QF:" for a filter matching all terms or an expression
+     * @param filterIdentifier the identifier of the filter
+     * @param filterString the terms of the filter, separated by spaces
+     * @return the new filter
+     */
+    IFilter createFilter(String prefix,int filterIdentifier,String filterString){
+        if(prefix.equals("QP:")) return new FilterPhrase(filterIdentifier,filterString);
+        if(prefix.equals("QX:")) return new FilterPrefix(filterIdentifier,filterString);
+        IFilter ret = null;
+        if(Expression.isExpression(filterString)){
+            try {
+                ret = new FilterExpression(filterIdentifier,filterString,expressions,dictionary);
+            } catch (IllegalArgumentException e) {
+                // Not an expression: the filter matches its words as plain terms
+            }
+        }
+        if(ret==null) ret = new FilterMatchAll(filterIdentifier,filterString,dictionary);
+        // New filters start with the order of the current estimates
+        ret.optimize(statistics);
         return ret;
     }
 
+    /**
+     * Tells the prefix of the lines creating filters of the same kind as the given one.
+     */
+    static String prefixOf(IFilter aFilter){
+        if(aFilter instanceof FilterPhrase) return "QP:";
+        if(aFilter instanceof FilterPrefix) return "QX:";
+        return "QF:";
+    }
+
+    static Integer parseFilterIdentifier(String identifier){
+        try {
+            return Integer.valueOf(identifier);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Removes the filter with the given identifier. Log lines processed after this method returns are not matched by it.
+     * The identifier is not reused by later filters.
+     *
+     * @param filterIdentifier the identifier of the filter to be removed
+     * @return the removed filter, or null if there is no filter with the given identifier
+     */
+    public IFilter removeFilter(int filterIdentifier){
+        FilterChangeEvent event = (metrics.enabled ? beginFilterChange() : null);
+        IFilter aFilter = filters.remove(filterIdentifier);
+        if(aFilter!=null){
+            unregisterFilter(aFilter);
+            metrics.filterRemoved(filterIdentifier);
+            if(event!=null) endFilterChange(event,"RF",aFilter);
+        }
+        return aFilter;
+    }
+
+    /**
+     * Moves the filter with the given identifier, with its metrics, to another StreamFilter sharing the term dictionary
+     * and the expression table of this one, e.g. another shard of a {@link ShardedStreamFilter}.
+     * Unlike a removal followed by an addition, it is not a filter change: no event is recorded and no counter is reset.
+     * Log lines must not be processed by either StreamFilter meanwhile.
+     *
+     * @param filterIdentifier the identifier of the filter to be moved
+     * @param target the StreamFilter receiving the filter
+     * @return the moved filter, or null if there is no filter with the given identifier
+     */
+    IFilter moveFilter(int filterIdentifier,StreamFilter target){
+        IFilter aFilter = filters.remove(filterIdentifier);
+        if(aFilter!=null){
+            unregisterFilter(aFilter);
+            target.addFilter(aFilter);
+            metrics.filterMoved(filterIdentifier,target.metrics);
+        }
+        return aFilter;
+    }
+
+    /**
+     * Replaces the terms of the filter with the given identifier, which is kept by the new filter.
+     * The new filter is of the same kind as the replaced one, e.g. a phrase filter stays a phrase filter.
+     * Log lines processed after this method returns are matched against the new terms only.
+     *
+     * @param filterIdentifier the identifier of the filter to be replaced
+     * @param filterString the new terms of the filter, separated by spaces
+     * @return the new filter, or null if there is no filter with the given identifier
+     */
+    public IFilter replaceFilter(int filterIdentifier,String filterString){
+        FilterChangeEvent event = (metrics.enabled ? beginFilterChange() : null);
+        // The map entry stays locked while the index is updated, so removals and replacements of one filter are serialized
+        IFilter ret = filters.computeIfPresent(filterIdentifier,(id,aFilter) -> {
+            IFilter replacement = createFilter(prefixOf(aFilter),id,filterString.trim());
+            if(aFilter instanceof IPatternFilter) patterns.replaceFilter((IPatternFilter) aFilter,(IPatternFilter) replacement);
+            else {
+                index.replaceFilter(aFilter,replacement);
+                cache.invalidate();
+            }
+            return replacement;
+        });
+        if(event!=null && ret!=null) endFilterChange(event,"UF",ret);
+        return ret;
+    }
+
+    /**
+     * Withdraws a filter removed from the filter set from the pattern index or the inverted index.
+     */
+    private void unregisterFilter(IFilter aFilter){
+        if(aFilter instanceof IPatternFilter) patterns.removeFilter((IPatternFilter) aFilter);
+        else {
+            index.removeFilter(aFilter);
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Publishes a new filter to the inverted index, then invalidates the matches cached without it.
+     */
+    private void addIndexedFilter(IFilter aFilter){
+        index.addFilter(aFilter);
+        cache.invalidate();
+    }
+
+    private static FilterChangeEvent beginFilterChange(){
+        FilterChangeEvent event = new FilterChangeEvent();
+        event.begin();
+        return event;
+    }
+
+    private void endFilterChange(FilterChangeEvent event,String operation,IFilter aFilter){
+        metrics.recordFilterChange();
+        event.end();
+        if(event.shouldCommit()){
+            event.operation = operation;
+            event.filterIdentifier = aFilter.getFilterIdentifier();
+            event.terms = aFilter.getTerms();
+            event.commit();
+        }
+    }
+
     /**
      * Processes a log line with the prefix "LOL:", normalizes it, checks against registered filters,
-     * and returns a formatted string if the line matches any filters.
+     * and hands the line to the sink if it matches any filters.
+     * The line is tokenized in place; no String is built for it.
      *
      * @param line the input line with the prefix "LOL:", which will be normalized and checked against filters
-     * @return a formatted string containing the normalized line and matching filter identifiers,
-     *         or null if no filters matched
+     * @param offset the index of the first character after the prefix
+     * @param sink the sink receiving the response
+     * @return true if any filter matched, false otherwise
+     * @throws IOException if the sink cannot write the response
      */
-    private String processLogOfLine(String line){
-        // Extract the normalized line from the log line
-        String normalizedLine = line.trim();
-        // Remove punctuations and tokenize the normalized line
-        String normalizedLine2 = normalizedLine.replaceAll("\\p{Punct}","").trim();
-        HashSet<String> lineSet = new HashSet<>(Arrays.asList(normalizedLine2.toLowerCase().split("\s+")));
-        // Check if the line matches any of the filters
-        List<Integer> filterIdentifiers = checkFilterMatch(lineSet);
+    private boolean processLogOfLine(String line,int offset,ResultSink sink) throws IOException {
+        int[] filterIdentifiers = matchLogOfLine(line,offset,line.length(),scratch.get());
         // Prepare response for matching filters
-        return (!filterIdentifiers.isEmpty() ? prepareMatchLog(normalizedLine,filterIdentifiers) : null);
+        if(filterIdentifiers.length==0) return false;
+        prepareMatchLog(line,offset,filterIdentifiers,sink);
+        return true;
+    }
+
+    /**
+     * Tokenizes a log line and checks which filters match it, counting and timing both steps while the metrics are enabled.
+     *
+     * @param line the characters holding the log line
+     * @param from the index of the first character of the log line, after its prefix
+     * @param to the index after the last character of the log line
+     * @param aScratch the tokenizer and matching buffers of the calling thread
+     * @return the identifiers of filters that match the given line, in ascending order
+     */
+    int[] matchLogOfLine(CharSequence line,int from,int to,MatchScratch aScratch){
+        // The normalized text of the line is only needed by phrase and prefix filters
+        boolean keepText = patterns.size()>0;
+        if(!metrics.enabled){
+            // Remove punctuations and tokenize the line into term identifiers
+            aScratch.tokenizer.tokenize(line,from,to,dictionary,aScratch.lineTerms,keepText);
+            if(statistics.record(aScratch.lineTerms,aScratch)) scheduleOptimization();
+            // Check if the line matches any of the filters
+            return checkFilterMatch(aScratch.lineTerms,aScratch);
+        }
+        LogLineEvent event = new LogLineEvent();
+        event.begin();
+        long start = System.nanoTime();
+        aScratch.tokenizer.tokenize(line,from,to,dictionary,aScratch.lineTerms,keepText);
+        long tokenized = System.nanoTime();
+        if(statistics.record(aScratch.lineTerms,aScratch)) scheduleOptimization();
+        int[] ret = checkFilterMatch(aScratch.lineTerms,aScratch);
+        metrics.recordLogLine(tokenized-start,System.nanoTime()-start,ret.length);
+        event.end();
+        if(event.shouldCommit()){
+            event.terms = aScratch.lineTerms.size();
+            event.matches = ret.length;
+            event.commit();
+        }
+        return ret;
+    }
+
+    /**
+     * Hands a reordering of the filters to the background thread, unless one is already pending.
+     */
+    private void scheduleOptimization(){
+        if(!optimizing.compareAndSet(false,true)) return;
+        OPTIMIZER.execute(() -> {
+            try {
+                optimizeFilters();
+            } finally {
+                optimizing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Reorders the evaluation of all filters according to the current term statistics:
+     * the terms of each filter rarest first, and the filters evaluated one by one by increasing cost.
+     * Lines matched concurrently see each filter in its old or new order, with the same result.
+     */
+    void optimizeFilters(){
+        for(IFilter aFilter : filters.values()) aFilter.optimize(statistics);
+        index.optimize(statistics);
     }
 
     /**
      * Checks which filters in the current filter set match the provided line.
+     * Only the filters sharing at least one token with the line are looked up through the inverted index,
+     * and phrase and prefix filters are matched by scanning the normalized text of the line, if it was kept, once.
      *
-     * @param lineSet a HashSet containing the tokens of a normalized line to be matched against the filters
-     * @return a list of integers representing the identifiers of filters that match the given line
-     */
-    private List<Integer> checkFilterMatch(HashSet<String> lineSet){
-        List<Integer> filterIdentifiers = new ArrayList<>();
-        filters.values()
-                .parallelStream()
-                .mapToInt(x -> { if(x.doMatch(lineSet)) return x.getFilterIdentifier(); return 0;})
-                .filter(x->x!=0)
-                .forEach(filterIdentifiers::add);
-        Collections.sort(filterIdentifiers);
-        return filterIdentifiers;
-    }
-    /**
-     * Prepares a response string for matching filters based on a normalized line.
-     *
-     * @param normalizedLine the normalized line that was matched
-     * @param filterIdentifiers a list of filter identifiers that matched the provided line
-     * @return a formatted string containing the normalized line and the matching filter identifiers,
-     *         or null if no filters matched
-     */
-    private String prepareMatchLog(String normalizedLine,List<Integer> filterIdentifiers){
-        String ret = null;
-        if(!filterIdentifiers.isEmpty()){
-            ret = "M:"+normalizedLine+"; FID="+filterIdentifiers.getFirst();
-            for(int i=1;i<filterIdentifiers.size();i++)
-                ret += ", "+filterIdentifiers.get(i);
+     * @param line the term identifiers of a normalized line to be matched against the filters
+     * @param aScratch the matching buffers of the calling thread
+     * @return the identifiers of filters that match the given line, in ascending order
+     */
+    int[] checkFilterMatch(LineTerms line,MatchScratch aScratch){
+        if(!metrics.enabled) return matchFilters(line,aScratch);
+        long start = System.nanoTime();
+        int[] ret = matchFilters(line,aScratch);
+        metrics.recordMatch(System.nanoTime()-start);
+        return ret;
+    }
+
+    private int[] matchFilters(LineTerms line,MatchScratch aScratch){
+        int[] ret = matchIndex(line,aScratch);
+        return (line.hasText() ? merge(ret,patterns.match(line,aScratch)) : ret);
+    }
+
+    /**
+     * Matches a line through the inverted index, or takes the result of a line with the same terms from the cache.
+     * The epoch is read before matching, so a result computed while the filters change is never served after the change.
+     */
+    private int[] matchIndex(LineTerms line,MatchScratch aScratch){
+        if(!cache.isEnabled()) return index.match(line,aScratch);
+        long hash = MatchCache.hash(line);
+        int epoch = cache.getEpoch();
+        int[] ret = cache.get(line,hash,epoch);
+        if(ret!=null){
+            if(metrics.enabled) for(int filterIdentifier : ret) metrics.filterHit(filterIdentifier);
+            return ret;
         }
+        ret = index.match(line,aScratch);
+        cache.put(line,hash,epoch,ret);
         return ret;
     }
+
+    /**
+     * Merges two ascending arrays of distinct filter identifiers.
+     */
+    private static int[] merge(int[] first,int[] second){
+        if(second.length==0) return first;
+        if(first.length==0) return second;
+        int[] ret = new int[first.length+second.length];
+        int i = 0, j = 0, k = 0;
+        while(i<first.length && j<second.length) ret[k++] = (first[i]<second[j] ? first[i++] : second[j++]);
+        while(i<first.length) ret[k++] = first[i++];
+        while(j<second.length) ret[k++] = second[j++];
+        return ret;
+    }
+    /**
+     * Hands the response for matching filters to the sink: the line without its prefix and surrounding whitespace,
+     * and the identifiers of the filters. Whitespace is trimmed as by String.trim(), on indices.
+     *
+     * @param line the input line that was matched
+     * @param offset the index of the first character after the prefix
+     * @param filterIdentifiers the identifiers of the filters that matched the provided line, in ascending order
+     * @param sink the sink receiving the response
+     * @throws IOException if the sink cannot write the response
+     */
+    static void prepareMatchLog(String line,int offset,int[] filterIdentifiers,ResultSink sink) throws IOException {
+        int from = offset;
+        int to = line.length();
+        while(from<to && line.charAt(from)<=' ') from++;
+        while(to>from && line.charAt(to-1)<=' ') to--;
+        sink.lineMatched(line,from,to,filterIdentifiers);
+    }
 }
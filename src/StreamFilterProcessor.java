@@ -0,0 +1,339 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The StreamFilterProcessor class is a {@link Flow.Processor} front end of a {@link StreamFilter}: it receives input lines
+ * from any number of sources and publishes their responses, in the format of {@link StreamFilter#filter(String)},
+ * to its subscribers. Lines without a response, e.g. log lines matching no filter, publish nothing.
+ * <p>
+ * Lines are processed by one worker thread in micro-batches: each time it wakes up, the worker takes all the lines
+ * received so far, up to {@link #BATCH_SIZE}, and hands them to {@link StreamFilter#filterBatch(List)} at once.
+ * Lines are processed in the order they are received, so the responses of each source are published in the order of its lines.
+ * <p>
+ * Demand is respected both ways. Each source is asked for at most {@link #SOURCE_DEMAND} lines ahead of those processed,
+ * and the responses are buffered for each subscriber up to its demand and {@link Flow#defaultBufferSize()} more;
+ * when a subscriber falls behind, the worker waits for it, so that the sources are asked for no more lines.
+ * Responses published while no subscriber is subscribed are dropped.
+ * <p>
+ * The StreamFilterProcessor is itself the subscriber of its first source; {@link #newSource()} subscribes more of them.
+ * The completion of the first source, or {@link #close()}, completes the subscribers once all the lines received
+ * are processed; an error of any source fails them.
+ * <p>
+ * Besides sources, any number of threads, e.g. virtual threads, can call the blocking {@link #filter(String)}, which
+ * waits for the response of one line instead of publishing it. It only parks the calling thread and never holds a monitor.
+ */
+public class StreamFilterProcessor implements Flow.Processor<String, String>, AutoCloseable {
+    /**
+     * The maximum number of lines processed at once.
+     */
+    static final int BATCH_SIZE = 256;
+    /**
+     * The maximum number of lines requested from each source and not processed yet.
+     */
+    static final int SOURCE_DEMAND = 64;
+    /**
+     * The default maximum number of lines of {@link #filter(String)} waiting to be processed.
+     */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * A line received and not processed yet; the end of the input has no line and may hold the error of a source.
+     */
+    private static final class Entry {
+        final String line;
+        /**
+         * The source of the line, or null for a line of {@link #filter(String)}.
+         */
+        final Source source;
+        /**
+         * The response of a line of {@link #filter(String)}, or null for a line of a source.
+         */
+        final CompletableFuture<String> reply;
+        final Throwable failure;
+
+        Entry(String line, Source source, CompletableFuture<String> reply, Throwable failure) {
+            this.line = line;
+            this.source = source;
+            this.reply = reply;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * A subscriber receiving the lines of one source, which it requests {@link #SOURCE_DEMAND} at a time.
+     */
+    private final class Source implements Flow.Subscriber<String> {
+        /**
+         * Serializes the calls on the subscription, made by the source, the worker and {@link #close()}.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        private final boolean first;
+        private Flow.Subscription subscription;
+        /**
+         * The number of lines processed and not requested again yet, only read and written by the worker.
+         */
+        private int processed;
+
+        Source(boolean first) {
+            this.first = first;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription aSubscription) {
+            lock.lock();
+            try {
+                if (subscription != null || closed.get()) {
+                    aSubscription.cancel();
+                    return;
+                }
+                subscription = aSubscription;
+                sources.add(this);
+                aSubscription.request(SOURCE_DEMAND);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onNext(String line) {
+            // Never more than the requested lines, so the inbox stays bounded without blocking the source
+            if (!closed.get()) inbox.add(new Entry(line, this, null, null));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            sources.remove(this);
+            end(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            sources.remove(this);
+            if (first) close();
+        }
+
+        /**
+         * Counts a processed line, and requests half of the demand again once it was processed.
+         */
+        void processed() {
+            if (++processed < SOURCE_DEMAND / 2) return;
+            lock.lock();
+            try {
+                subscription.request(processed);
+            } finally {
+                lock.unlock();
+            }
+            processed = 0;
+        }
+
+        void cancel() {
+            lock.lock();
+            try {
+                subscription.cancel();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final StreamFilter streamFilter;
+    /**
+     * The lines received and not processed yet, in the order they were received.
+     */
+    private final LinkedBlockingQueue<Entry> inbox;
+    /**
+     * The free places of the lines of {@link #filter(String)}.
+     */
+    private final Semaphore capacity;
+    private final Source firstSource;
+    private final List<Source> sources;
+    private final SubmissionPublisher<String> publisher;
+    private final AtomicBoolean closed;
+    /**
+     * Set by the worker before it rejects the lines left, after which it takes no more lines.
+     */
+    private volatile boolean terminated;
+
+    /**
+     * Constructs a StreamFilterProcessor processing the lines through the given StreamFilter, and starts its worker thread.
+     *
+     * @param streamFilter the StreamFilter processing the lines, holding the filters defined so far
+     */
+    public StreamFilterProcessor(StreamFilter streamFilter) {
+        this(streamFilter, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a StreamFilterProcessor processing the lines through the given StreamFilter, and starts its worker thread.
+     *
+     * @param streamFilter the StreamFilter processing the lines, holding the filters defined so far
+     * @param capacity the maximum number of lines of {@link #filter(String)} waiting to be processed, beyond which callers wait
+     */
+    public StreamFilterProcessor(StreamFilter streamFilter, int capacity) {
+        this.streamFilter = streamFilter;
+        inbox = new LinkedBlockingQueue<>();
+        this.capacity = new Semaphore(capacity);
+        closed = new AtomicBoolean();
+        sources = new CopyOnWriteArrayList<>();
+        firstSource = new Source(true);
+        publisher = new SubmissionPublisher<>();
+        Thread worker = new Thread(this::work, "StreamFilterProcessor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Subscribes a subscriber to the responses published from now on.
+     *
+     * @param subscriber the subscriber of the responses
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        firstSource.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(String line) {
+        firstSource.onNext(line);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        firstSource.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        firstSource.onComplete();
+    }
+
+    /**
+     * Creates a subscriber for another source of lines. Its lines are processed along with those of the other sources,
+     * in the order they are received; its completion does not complete the StreamFilterProcessor.
+     *
+     * @return a new subscriber to be subscribed to one source
+     */
+    public Flow.Subscriber<String> newSource() {
+        return new Source(false);
+    }
+
+    /**
+     * Processes one line and waits for its response, which is not published. The line is processed along with the
+     * lines of the sources and of the other callers; the caller waits while {@code capacity} lines are already waiting.
+     *
+     * @param line the input line to be processed, as for {@link StreamFilter#filter(String)}
+     * @return the response to the line, or null if it has none
+     * @throws InterruptedException if the calling thread is interrupted while waiting; the line may still be processed
+     * @throws IllegalStateException if the StreamFilterProcessor was closed before the line was processed, or failed
+     */
+    public String filter(String line) throws InterruptedException {
+        if (closed.get()) throw new IllegalStateException("StreamFilterProcessor closed");
+        capacity.acquire();
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        Entry entry = new Entry(line, null, reply, null);
+        inbox.add(entry);
+        // The worker may have rejected the lines left before this one was added
+        if (terminated) {
+            inbox.remove(entry);
+            if (reply.completeExceptionally(new IllegalStateException("StreamFilterProcessor closed"))) capacity.release();
+        }
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Line not processed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops receiving lines and cancels the sources. The lines already received are processed,
+     * then the subscribers are completed once they received all the responses.
+     */
+    @Override
+    public void close() {
+        end(null);
+    }
+
+    /**
+     * Retrieves the number of lines received and not processed yet.
+     *
+     * @return the number of waiting lines
+     */
+    public int getPending() {
+        return inbox.size();
+    }
+
+    /**
+     * Stops receiving lines, and queues the end of the input, after which the worker completes the subscribers.
+     */
+    private void end(Throwable failure) {
+        if (!closed.compareAndSet(false, true)) return;
+        for (Source source : sources) source.cancel();
+        inbox.add(new Entry(null, null, null, failure));
+    }
+
+    /**
+     * Processes the lines in micro-batches until the end of the input, then completes the subscribers.
+     */
+    private void work() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        List<String> lines = new ArrayList<>(BATCH_SIZE);
+        Throwable failure = null;
+        try {
+            while (true) {
+                batch.clear();
+                lines.clear();
+                batch.add(inbox.take());
+                inbox.drainTo(batch, BATCH_SIZE - 1);
+                int end = 0;
+                while (end < batch.size() && batch.get(end).line != null) lines.add(batch.get(end++).line);
+                String[] responses = streamFilter.filterBatch(lines);
+                for (int i = 0; i < end; i++) deliver(batch.get(i), responses[i]);
+                if (end < batch.size()) {
+                    failure = batch.get(end).failure;
+                    batch.subList(0, end + 1).clear();
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            failure = e;
+            end(e);
+        }
+        // Lines received after the end of the input, or not processed because of a failure
+        terminated = true;
+        inbox.drainTo(batch);
+        IllegalStateException rejected = new IllegalStateException("StreamFilterProcessor closed", failure);
+        for (Entry entry : batch) {
+            if (entry.reply != null && entry.reply.completeExceptionally(rejected)) capacity.release();
+        }
+        if (failure == null) publisher.close();
+        else publisher.closeExceptionally(failure);
+    }
+
+    /**
+     * Hands the response of a line to its caller, or publishes it and requests another line from its source.
+     * Publishing waits while a subscriber has no room left for it.
+     */
+    private void deliver(Entry entry, String response) {
+        if (entry.reply != null) {
+            entry.reply.complete(response);
+            capacity.release();
+            return;
+        }
+        if (response != null) publisher.submit(response);
+        entry.source.processed();
+    }
+}
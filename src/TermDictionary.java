@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * The TermDictionary class interns each distinct normalized term to a dense integer identifier, starting with 0.
+ * Filters store the identifiers of their terms and log lines are translated into identifiers once,
+ * so that matching compares integers instead of hashing strings.
+ * Lookups can be done directly on a character buffer, which lets a tokenizer resolve tokens without creating Strings.
+ * <p>
+ * The dictionary is safe for concurrent use: terms are interned under a lock, while lookups never take one.
+ * A lookup always finds the terms interned before it started; a term being interned concurrently may or may not be found.
+ */
+public class TermDictionary {
+    /**
+     * The arrays of the dictionary, replaced as a whole when one of them has to grow.
+     * Entries are only written into free positions, so a lookup racing with an insertion sees either the
+     * free position or the new entry. Terms are Strings, whose characters are safely visible once the String is.
+     */
+    private static final class Table {
+        /**
+         * Open addressing table of term identifiers; an empty slot holds -1.
+         * The capacity is always a power of two and at most half of it is in use.
+         */
+        final int[] slots;
+        /**
+         * Each interned term, indexed by term identifier.
+         */
+        final String[] terms;
+        /**
+         * Hash code of each interned term, indexed by term identifier. Kept to avoid recomputing it when the table grows.
+         */
+        final int[] hashes;
+
+        Table(int[] slots, String[] terms, int[] hashes) {
+            this.slots = slots;
+            this.terms = terms;
+            this.hashes = hashes;
+        }
+    }
+
+    /**
+     * The current arrays of the dictionary.
+     */
+    private volatile Table table;
+    /**
+     * Number of interned terms; the next free identifier.
+     */
+    private volatile int size;
+
+    /**
+     * Constructs an empty term dictionary.
+     */
+    public TermDictionary() {
+        int[] slots = new int[64];
+        Arrays.fill(slots, -1);
+        table = new Table(slots, new String[32], new int[32]);
+    }
+
+    /**
+     * Returns the identifier of the given term, adding the term to the dictionary if it is not present yet.
+     *
+     * @param term a normalized term
+     * @return the identifier of the term
+     */
+    public synchronized int intern(String term) {
+        int hash = hash(term);
+        int id = lookup(term);
+        if (id >= 0) return id;
+        Table aTable = table;
+        id = size;
+        if (id == aTable.terms.length) {
+            aTable = new Table(aTable.slots, Arrays.copyOf(aTable.terms, id * 2), Arrays.copyOf(aTable.hashes, id * 2));
+        }
+        aTable.terms[id] = term;
+        aTable.hashes[id] = hash;
+        if ((id + 1) * 2 > aTable.slots.length) {
+            aTable = rehash(aTable, aTable.slots.length * 2, id + 1);
+        } else {
+            insert(aTable.slots, id, hash);
+        }
+        table = aTable;
+        size = id + 1;
+        return id;
+    }
+
+    /**
+     * Returns the identifier of the given term without adding it to the dictionary.
+     *
+     * @param term a normalized term
+     * @return the identifier of the term, or -1 if the term is not in the dictionary
+     */
+    public int lookup(String term) {
+        Table aTable = table;
+        int hash = hash(term);
+        int mask = aTable.slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = aTable.slots[i];
+            if (id < 0) return -1;
+            if (id < aTable.terms.length && aTable.hashes[id] == hash && term.equals(aTable.terms[id])) return id;
+        }
+    }
+
+    /**
+     * Returns the identifier of the term held in the given range of a character buffer without adding it to the dictionary.
+     *
+     * @param buffer the buffer holding the characters of a normalized term
+     * @param offset the index of the first character of the term
+     * @param length the number of characters of the term
+     * @return the identifier of the term, or -1 if the term is not in the dictionary
+     */
+    public int lookup(char[] buffer, int offset, int length) {
+        Table aTable = table;
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) h = 31 * h + buffer[i];
+        int hash = spread(h);
+        int mask = aTable.slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = aTable.slots[i];
+            if (id < 0) return -1;
+            if (id < aTable.terms.length && aTable.hashes[id] == hash && equals(aTable.terms[id], buffer, offset, length))
+                return id;
+        }
+    }
+
+    /**
+     * Retrieves the term of the given identifier.
+     *
+     * @param id a term identifier returned by this dictionary
+     * @return the term as a String
+     */
+    public String term(int id) {
+        return table.terms[id];
+    }
+
+    /**
+     * Retrieves the number of terms in the dictionary. Every identifier is smaller than this value.
+     *
+     * @return the number of interned terms
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean equals(String term, char[] buffer, int offset, int length) {
+        // The term may not be visible yet if it is being interned concurrently
+        if (term == null || term.length() != length) return false;
+        for (int i = 0; i < length; i++)
+            if (term.charAt(i) != buffer[offset + i]) return false;
+        return true;
+    }
+
+    private static void insert(int[] slots, int id, int hash) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] >= 0) i = (i + 1) & mask;
+        slots[i] = id;
+    }
+
+    private static Table rehash(Table aTable, int capacity, int count) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        for (int id = 0; id < count; id++) insert(slots, id, aTable.hashes[id]);
+        return new Table(slots, aTable.terms, aTable.hashes);
+    }
+
+    private static int hash(String term) {
+        // Same as String.hashCode(), which is cached by the String
+        return spread(term.hashCode());
+    }
+
+    private static int spread(int h) {
+        // Scramble the hash, then spread its high bits, as the table index only uses the low bits:
+        // similar terms have close String hash codes, which would otherwise fill runs of adjacent positions
+        int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The TermStatistics class estimates how often each filter term occurs in the log lines, from a sample of the stream.
+ * Each matching thread counts the terms of one log line out of {@link #SAMPLE_INTERVAL} into its {@link MatchScratch},
+ * and merges its counts into the shared statistics every {@link #FLUSH_INTERVAL} sampled lines, so the lock is
+ * rarely taken. Every {@link #PERIOD} merged lines, the estimates are published and all counts are halved,
+ * so that the estimates follow the stream as it drifts while the older lines fade out.
+ * <p>
+ * The estimates give a cost-based evaluation order: the terms of a filter are probed rarest first, so that the first
+ * probe fails as often as possible, and filters are evaluated by increasing expected cost.
+ * Only the order of the evaluation depends on the estimates, never its result.
+ */
+public class TermStatistics {
+    /**
+     * One log line out of this number is sampled by each thread.
+     */
+    static final int SAMPLE_INTERVAL = 16;
+    /**
+     * Number of lines a thread samples before merging its counts into the shared statistics.
+     */
+    static final int FLUSH_INTERVAL = 256;
+    /**
+     * Number of merged lines between two publications of the estimates.
+     */
+    static final int PERIOD = 4096;
+
+    /**
+     * Published estimates: the decayed number of sampled lines holding each term, indexed by term identifier,
+     * and the decayed number of sampled lines. The arrays are never modified once published.
+     */
+    private static final class Estimates {
+        final long[] counts;
+        final long lines;
+
+        Estimates(long[] counts, long lines) {
+            this.counts = counts;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * The latest published estimates.
+     */
+    private volatile Estimates estimates;
+    /**
+     * Number of publications so far.
+     */
+    private volatile int epoch;
+
+    /*
+     * The counts being gathered; only accessed while holding the lock of these statistics.
+     */
+    private long[] counts;
+    private long lines;
+    private int linesInPeriod;
+
+    /**
+     * Constructs empty statistics; every term is estimated as rare until lines are recorded.
+     */
+    public TermStatistics() {
+        counts = new long[64];
+        estimates = new Estimates(new long[0], 0);
+    }
+
+    /**
+     * Counts the terms of a log line if the calling thread samples it, and merges the counts of the thread from time to time.
+     *
+     * @param line the term identifiers of the log line
+     * @param scratch the buffers of the calling thread, holding its counts not merged yet
+     * @return true if new estimates were published, which is the time to reorder the evaluation of the filters
+     */
+    public boolean record(LineTerms line, MatchScratch scratch) {
+        if (++scratch.linesSinceSample < SAMPLE_INTERVAL) return false;
+        scratch.linesSinceSample = 0;
+        int[] local = scratch.sampledTermCounts;
+        for (int i = 0; i < line.size(); i++) {
+            int termId = line.get(i);
+            if (termId >= local.length) local = scratch.sampledTermCounts = Arrays.copyOf(local, Math.max(termId + 1, local.length * 2));
+            local[termId]++;
+        }
+        if (++scratch.sampledLines < FLUSH_INTERVAL) return false;
+        return merge(scratch);
+    }
+
+    /**
+     * Merges the counts of a thread into the shared counts, and publishes the estimates at the end of a period.
+     */
+    private synchronized boolean merge(MatchScratch scratch) {
+        int[] local = scratch.sampledTermCounts;
+        if (local.length > counts.length) counts = Arrays.copyOf(counts, local.length);
+        for (int termId = 0; termId < local.length; termId++) counts[termId] += local[termId];
+        Arrays.fill(local, 0);
+        lines += scratch.sampledLines;
+        linesInPeriod += scratch.sampledLines;
+        scratch.sampledLines = 0;
+        if (linesInPeriod < PERIOD) return false;
+        publish();
+        return true;
+    }
+
+    /**
+     * Publishes the current counts as the estimates, then halves them.
+     */
+    private void publish() {
+        estimates = new Estimates(counts.clone(), lines);
+        for (int termId = 0; termId < counts.length; termId++) counts[termId] >>= 1;
+        lines >>= 1;
+        linesInPeriod = 0;
+        epoch++;
+    }
+
+    /**
+     * Retrieves the number of times the estimates were published.
+     *
+     * @return the epoch of the current estimates, 0 before the first publication
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Estimates the fraction of log lines holding a term. Terms never seen are estimated as rarer than any seen term.
+     *
+     * @param termId a term identifier of a {@link TermDictionary}
+     * @return the estimated probability that a log line holds the term, strictly between 0 and 1
+     */
+    public double frequency(int termId) {
+        Estimates anEstimates = estimates;
+        long count = termId < anEstimates.counts.length ? anEstimates.counts[termId] : 0;
+        // Laplace smoothing keeps unseen terms above 0 and universal terms below 1
+        return (count + 0.5) / (anEstimates.lines + 1);
+    }
+
+    /**
+     * Sorts term identifiers rarest first, so that a conjunction of them fails as early as possible.
+     * Terms with the same estimate keep ascending identifiers, so that the order is stable between two publications.
+     *
+     * @param termIds the term identifiers of a filter
+     * @return a new array holding the same identifiers, rarest first
+     */
+    public int[] rarestFirst(int[] termIds) {
+        Estimates anEstimates = estimates;
+        return Arrays.stream(termIds).boxed()
+                .sorted(Comparator.<Integer>comparingLong(t -> t < anEstimates.counts.length ? anEstimates.counts[t] : 0)
+                        .thenComparingInt(t -> t))
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Estimates the number of terms probed to evaluate a conjunction of terms in the given order:
+     * the first term is always probed, and each next one only if all the previous ones were found.
+     *
+     * @param termIds the term identifiers of a filter, in probing order
+     * @return the expected number of probes, assuming the terms occur independently
+     */
+    public double expectedProbes(int[] termIds) {
+        double ret = 0;
+        double reached = 1;
+        for (int termId : termIds) {
+            ret += reached;
+            reached *= frequency(termId);
+        }
+        return ret;
+    }
+
+    /**
+     * Retrieves a comparator ordering filters by increasing estimated cost, see {@link IFilter#estimateCost(TermStatistics)}.
+     *
+     * @return the comparator of filters, by cost then by identifier
+     */
+    public Comparator<IFilter> byCost() {
+        return Comparator.<IFilter>comparingDouble(filter -> filter.estimateCost(this)).thenComparingInt(IFilter::getFilterIdentifier);
+    }
+}
@@ -0,0 +1,53 @@
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorNormalizer class is an {@link AsciiNormalizer} using the incubating Vector API, which classifies and folds
+ * the characters of a vector at a time: 16 characters (32 bytes) with AVX2, 32 characters (64 bytes) with AVX-512.
+ * <p>
+ * It requires the module jdk.incubator.vector, added with {@code --add-modules jdk.incubator.vector}; without it,
+ * the class cannot be loaded and {@link LineTokenizer} keeps its scalar path. Lines whose characters are not all ASCII
+ * are rejected, so that the tokenizer falls back to its scalar path for them.
+ */
+public class VectorNormalizer implements AsciiNormalizer {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    /**
+     * Constructs a VectorNormalizer.
+     *
+     * @throws UnsupportedOperationException if the vectors of the platform hold fewer than 8 characters, too few to pay off
+     */
+    public VectorNormalizer() {
+        if (SPECIES.length() < 8) throw new UnsupportedOperationException("Vectors of " + SPECIES.length() + " characters");
+    }
+
+    @Override
+    public boolean normalize(char[] chars, int length, long[] marks) {
+        int words = (length + 63) >>> 6;
+        for (int w = 0; w < words; w++) marks[w] = 0;
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += lanes) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, chars, i);
+            if (v.and((short) 0xFF80).compare(VectorOperators.NE, 0).anyTrue()) return false;
+            v = v.add((short) ('a' - 'A'), v.compare(VectorOperators.GE, 'A').and(v.compare(VectorOperators.LE, 'Z')));
+            v.intoCharArray(chars, i);
+            // Once folded, no upper case letter is left between the digits and the lower case letters
+            VectorMask<Short> marked = v.compare(VectorOperators.GE, ' ').and(v.compare(VectorOperators.LT, '0'))
+                    .or(v.compare(VectorOperators.GT, '9').and(v.compare(VectorOperators.LT, 'a')))
+                    .or(v.compare(VectorOperators.GT, 'z').and(v.compare(VectorOperators.LT, 127)));
+            // The number of lanes divides 64, so the marks of a vector never straddle two words
+            marks[i >>> 6] |= marked.toLong() << (i & 63);
+        }
+        for (; i < length; i++) {
+            char c = chars[i];
+            if (c >= 128) return false;
+            if (c >= 'A' && c <= 'Z') chars[i] = c += 'a' - 'A';
+            if ((c >= ' ' && c < '0') || (c > '9' && c < 'a') || (c > 'z' && c < 127)) marks[i >>> 6] |= 1L << i;
+        }
+        return true;
+    }
+}
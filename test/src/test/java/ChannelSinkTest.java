@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelSinkTest {
+
+    /**
+     * Tests that {@link ChannelSink} writes the same responses as {@link StreamFilter#filter(String)}, encoded in UTF-8.
+     *
+     * Test setup involves:
+     * - Filter lines, matching log lines with ASCII and non-ASCII characters, and a line without a known prefix.
+     * - A log line longer than the buffer of the sink, so that the encoder has to flush in the middle of it.
+     *
+     * The test verifies:
+     * - The bytes written to the channel are the responses of filter(String), each followed by a line separator.
+     */
+    @Test
+    void testSink_SameAsFilter() throws IOException {
+        // Setup
+        String[] lines = {"QF: Hello", "QF:  Straße", "LOL:  Hello, Straße! ", "LOL: nothing", "unknown line",
+                "LOL: hello " + "ü".repeat(ChannelSink.BUFFER_SIZE), "RF: 1", "UF: 2 größe"};
+        StreamFilter expectedFilter = new StreamFilter();
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            String response = expectedFilter.filter(line);
+            if (response != null) expected.append(response).append(System.lineSeparator());
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ChannelSink sink = new ChannelSink(Channels.newChannel(output));
+        StreamFilter aFilter = new StreamFilter();
+
+        // Execution
+        for (String line : lines) aFilter.filter(line, sink);
+        sink.flush();
+
+        // Assertion
+        assertEquals(expected.toString(), output.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,145 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionTest {
+
+    /**
+     * Tests that {@link Expression#parse(String)} reads the operators with their precedence and normalizes the terms.
+     *
+     * Test setup involves:
+     * - Expressions with mixed case terms, punctuation, implicit conjunctions, nested groups and negations.
+     * - Malformed expressions: unbalanced parentheses, missing operands.
+     *
+     * The test verifies:
+     * - The normalized text has upper case operators, flattened operands and parentheses only where they are needed.
+     * - Malformed expressions are rejected with an IllegalArgumentException. Plain terms, bare parentheses, NOT alone
+     *   and malformed expressions are not expressions, so they keep reading as plain filters.
+     */
+    @Test
+    void testParse_Precedence() {
+        // Execution and Assertion
+        assertEquals("error AND (disk OR io) AND NOT test", Expression.parse("Error AND (disk OR IO) AND NOT test!").toString());
+        assertEquals("error AND disk OR io", Expression.parse("error disk OR io").toString());
+        assertEquals("a AND b AND c", Expression.parse("a AND (b AND (c))").toString());
+        assertEquals("NOT (a OR b) OR NOT (c AND d)", Expression.parse("NOT (a OR b) OR NOT (c d)").toString());
+        assertTrue(Expression.isExpression("error AND disk"));
+        assertTrue(Expression.isExpression("NOT (a OR b)"));
+        assertFalse(Expression.isExpression("(error)"));
+        assertFalse(Expression.isExpression("foo(bar)"));
+        assertFalse(Expression.isExpression("NOT FOUND"));
+        assertFalse(Expression.isExpression("error and disk"));
+        assertFalse(Expression.isExpression("(error AND disk"));
+        assertFalse(Expression.isExpression("AND OR"));
+        for (String malformed : List.of("(error", "error)", "error AND", "OR error", "NOT", "()", "error AND OR disk"))
+            assertThrows(IllegalArgumentException.class, () -> Expression.parse(malformed), malformed);
+    }
+
+    /**
+     * Tests that the predicates compiled by {@link ExpressionTable} agree with the evaluation of the parsed expression.
+     *
+     * Test setup involves:
+     * - Three expression filters; two of them share the subexpression "disk OR io", written in different orders.
+     * - All the lines made of a subset of the five terms "error", "warn", "disk", "io" and "test", matched one after the
+     *   other with the same reusable {@link LineTerms}, before and after reordering with term statistics.
+     *
+     * The test verifies:
+     * - The shared subexpression is compiled into one node, and each filter matches exactly the lines satisfying its expression,
+     *   so no memoized value leaks from one line to the next.
+     */
+    @Test
+    void testCompile_SameAsEvaluate() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        ExpressionTable table = new ExpressionTable(dictionary);
+        List<FilterExpression> filters = List.of(
+                new FilterExpression(1, "error AND (disk OR io) AND NOT test", table, dictionary),
+                new FilterExpression(2, "(io OR disk) warn", table, dictionary),
+                new FilterExpression(3, "NOT (error OR warn) OR test", table, dictionary));
+        String[] terms = {"error", "warn", "disk", "io", "test"};
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        // Nodes: the two conjunctions, "disk OR io", "error OR warn" and the outer disjunction
+        assertEquals(5, table.size());
+        for (int round = 0; round < 2; round++) {
+            for (int subset = 0; subset < 1 << terms.length; subset++) {
+                HashSet<String> tokens = new HashSet<>();
+                for (int i = 0; i < terms.length; i++)
+                    if ((subset & 1 << i) != 0) tokens.add(terms[i]);
+                String line = String.join(" ", tokens) + " other";
+                scratch.tokenizer.tokenize(line, 0, line.length(), dictionary, scratch.lineTerms);
+                for (FilterExpression filter : filters)
+                    assertEquals(filter.doMatch(tokens), filter.doMatch(scratch.lineTerms), filter.getTerms() + " on " + line);
+            }
+            filters.forEach(filter -> filter.optimize(new TermStatistics()));
+        }
+        assertEquals(5, table.size());
+        assertEquals(Arrays.asList(true, false), Arrays.asList(
+                filters.get(0).doMatch(new HashSet<>(List.of("error", "io"))),
+                filters.get(0).doMatch(new HashSet<>(List.of("error", "io", "test")))));
+    }
+
+    /**
+     * Tests that the inverted index only evaluates an expression against the lines holding its guarding term,
+     * and moves it to its rarest required term once optimized.
+     *
+     * Test setup involves:
+     * - An expression "info AND timeout AND NOT test" requiring two terms, guarded by the first one, and an expression
+     *   "NOT test" requiring none, in an index with its metrics enabled.
+     * - Statistics of lines where "info" occurs in every line and "timeout" in none.
+     *
+     * The test verifies:
+     * - The first expression is evaluated by the lines holding "info" only, the second one by every line,
+     *   and both match the same lines before and after being moved to "timeout" by the optimization.
+     * - A removed expression is neither evaluated nor matched anymore.
+     */
+    @Test
+    void testMatch_GuardedByRequiredTerm() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        ExpressionTable table = new ExpressionTable(dictionary);
+        FilterMetrics metrics = new FilterMetrics();
+        metrics.setEnabled(true);
+        InvertedIndex index = new InvertedIndex(metrics);
+        FilterExpression guarded = new FilterExpression(1, "info AND timeout AND NOT test", table, dictionary);
+        index.addFilter(guarded);
+        index.addFilter(new FilterExpression(2, "NOT test", table, dictionary));
+        int info = dictionary.lookup("info"), timeout = dictionary.lookup("timeout");
+        TermStatistics statistics = new TermStatistics();
+        MatchScratch scratch = new MatchScratch();
+        for (int i = 0; i < TermStatistics.PERIOD * TermStatistics.SAMPLE_INTERVAL; i++)
+            statistics.record(lineTerms(dictionary, scratch, "info: started"), scratch);
+        String[] lines = {"info: session timeout", "info: started", "warn: timeout", "info: timeout in test"};
+        int[][] expected = {{1, 2}, {2}, {2}, {}};
+
+        // Execution and Assertion
+        assertSame(guarded, index.snapshot.guarded[info].filters[0]);
+        for (int i = 0; i < lines.length; i++)
+            assertArrayEquals(expected[i], index.match(lineTerms(dictionary, scratch, lines[i]), scratch), lines[i]);
+        assertEquals(3L, metrics.getFilterEvaluations().get(1));
+        assertEquals(4L, metrics.getFilterEvaluations().get(2));
+        InvertedIndex.Snapshot before = index.snapshot;
+        index.optimize(statistics);
+        assertSame(guarded, before.guarded[info].filters[0]);
+        assertNull(index.snapshot.guarded[info]);
+        assertSame(guarded, index.snapshot.guarded[timeout].filters[0]);
+        for (int i = 0; i < lines.length; i++)
+            assertArrayEquals(expected[i], index.match(lineTerms(dictionary, scratch, lines[i]), scratch), lines[i]);
+        assertEquals(6L, metrics.getFilterEvaluations().get(1));
+        assertEquals(2, index.size());
+        assertTrue(index.removeFilter(guarded));
+        assertEquals(1, index.size());
+        assertArrayEquals(new int[]{2}, index.match(lineTerms(dictionary, scratch, lines[0]), scratch));
+        assertEquals(6L, metrics.getFilterEvaluations().get(1));
+    }
+
+    private static LineTerms lineTerms(TermDictionary dictionary, MatchScratch scratch, String line) {
+        scratch.tokenizer.tokenize(line, 0, line.length(), dictionary, scratch.lineTerms);
+        return scratch.lineTerms;
+    }
+}
@@ -225,4 +225,32 @@ class FilterMatchAllTest {
         // Execution and Assertion
         assertFalse(filter.doMatch(inputSet), "Expected doMatch to return false for single non-matching term");
     }
+
+    /**
+     * Tests the behavior of the {@link FilterMatchAll#doMatch(LineTerms)} method, which matches
+     * the term identifiers of a line instead of its String tokens.
+     *
+     * Test setup involves:
+     * - A filter "Disk full" whose terms are interned into a shared term dictionary.
+     * - A line holding the identifiers of "full" and "disk", and a line holding only "disk".
+     *
+     * The test verifies:
+     * - The first line matches and the second does not, as it misses the term "full".
+     */
+    @Test
+    void testDoMatch_LineTerms() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        FilterMatchAll filter = new FilterMatchAll(1, "Disk full", dictionary);
+
+        LineTerms fullLine = new LineTerms();
+        fullLine.add(dictionary.lookup("full"));
+        fullLine.add(dictionary.lookup("disk"));
+        LineTerms partialLine = new LineTerms();
+        partialLine.add(dictionary.lookup("disk"));
+
+        // Execution and Assertion
+        assertTrue(filter.doMatch(fullLine), "Expected all term identifiers to match");
+        assertFalse(filter.doMatch(partialLine), "Expected doMatch to return false as one term identifier is missing");
+    }
 }
\ No newline at end of file
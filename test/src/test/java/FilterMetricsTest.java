@@ -0,0 +1,148 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterMetricsTest {
+
+    /**
+     * Tests that the metrics count lines, matches and per-filter evaluations and hits only while they are enabled.
+     *
+     * Test setup involves:
+     * - Two filters ("disk full", "error"), a log line processed before the metrics are enabled,
+     *   and three log lines processed after.
+     *
+     * The test verifies:
+     * - The line processed while the metrics were disabled is not counted.
+     * - Line, match and filter change counters, the latency histograms and the per-filter counters match the lines processed.
+     */
+    @Test
+    void testSnapshot_Counters() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        FilterMetrics metrics = aFilter.getMetrics();
+        aFilter.filter("QF: disk full");
+        aFilter.filter("LOL: error, disk is full");
+        metrics.setEnabled(true);
+        aFilter.filter("QF: error");
+
+        // Execution
+        aFilter.filter("LOL: error, disk is full");
+        aFilter.filter("LOL: the disk is fine");
+        aFilter.filter("LOL: nothing to see");
+        MetricsSnapshot snapshot = metrics.snapshot();
+
+        // Assertion
+        assertEquals(3, snapshot.getLogLines());
+        assertEquals(1, snapshot.getMatchedLines());
+        assertEquals(1.0 / 3, snapshot.getMatchRate(), 1e-9);
+        assertEquals(2, snapshot.getReportedMatches());
+        assertEquals(1, snapshot.getFilterChanges());
+        assertTrue(snapshot.getLineLatencyPercentile(0.99) >= snapshot.getLineLatencyPercentile(0.5));
+        assertTrue(snapshot.getLineLatencyPercentile(1) > 0);
+        assertEquals(Map.of(1, 2L, 2, 1L), snapshot.getFilterEvaluations());
+        assertEquals(Map.of(1, 1L, 2, 1L), snapshot.getFilterHits());
+    }
+
+    /**
+     * Tests that the metrics can be read through JMX once registered.
+     *
+     * Test setup involves:
+     * - Metrics registered with the platform MBean server and a matched log line.
+     *
+     * The test verifies:
+     * - The attributes read from the MBean server are the values of the metrics, and the metrics can be disabled through JMX.
+     */
+    @Test
+    void testRegister_Jmx() throws Exception {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        FilterMetrics metrics = aFilter.getMetrics();
+        metrics.setEnabled(true);
+        aFilter.filter("QF: Hello");
+        aFilter.filter("LOL: Hello World");
+
+        // Execution
+        ObjectName name = metrics.register("testRegister_Jmx");
+
+        // Assertion
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LogLines"));
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MatchedLines"));
+            ManagementFactory.getPlatformMBeanServer().setAttribute(name, new javax.management.Attribute("Enabled", false));
+            assertFalse(metrics.isEnabled());
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Tests that JFR events are recorded for the filter changes and log lines processed while the metrics are enabled.
+     *
+     * Test setup involves:
+     * - A JFR recording of the "jstream.FilterChange" and "jstream.LogLine" events, dumped to a temporary file.
+     *
+     * The test verifies:
+     * - One event is recorded for the added filter and one for the log line, with their fields set.
+     */
+    @Test
+    void testEvents_Jfr(@TempDir Path directory) throws Exception {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        aFilter.getMetrics().setEnabled(true);
+        Path file = directory.resolve("recording.jfr");
+
+        // Execution
+        try (Recording recording = new Recording()) {
+            recording.enable("jstream.FilterChange");
+            recording.enable("jstream.LogLine");
+            recording.start();
+            aFilter.filter("QF: Hello World");
+            aFilter.filter("LOL: World, Hello!");
+            recording.stop();
+            recording.dump(file);
+        }
+
+        // Assertion
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(2, events.size());
+        RecordedEvent change = events.stream().filter(e -> e.getEventType().getName().equals("jstream.FilterChange")).findFirst().orElseThrow();
+        assertEquals("QF", change.getString("operation"));
+        assertEquals("hello world", change.getString("terms"));
+        RecordedEvent line = events.stream().filter(e -> e.getEventType().getName().equals("jstream.LogLine")).findFirst().orElseThrow();
+        assertEquals(2, line.getInt("terms"));
+        assertEquals(1, line.getInt("matches"));
+    }
+
+    /**
+     * Tests the percentile estimate of {@link LatencyHistogram}.
+     *
+     * Test setup involves:
+     * - 99 durations of 100ns and one of 10000ns.
+     *
+     * The test verifies:
+     * - The median is the upper bound of the bucket of 100ns, and the maximum that of the bucket of 10000ns.
+     */
+    @Test
+    void testPercentile() {
+        // Setup
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) histogram.record(100);
+        histogram.record(10000);
+
+        // Execution and Assertion
+        assertEquals(127, LatencyHistogram.percentile(histogram.counts(), 0.5));
+        assertEquals(127, LatencyHistogram.percentile(histogram.counts(), 0.99));
+        assertEquals(16383, LatencyHistogram.percentile(histogram.counts(), 1));
+        assertEquals(19900, histogram.getTotalNanos());
+    }
+}
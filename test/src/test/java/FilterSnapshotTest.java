@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterSnapshotTest {
+
+    /**
+     * Tests that a StreamFilter loaded from a snapshot matches the log lines like the StreamFilter which saved it.
+     *
+     * Test setup involves:
+     * - Filters of every kind: plain terms, phrase, prefix and expression, one of them updated and one removed.
+     *
+     * The test verifies:
+     * - The loaded StreamFilter gives the same responses to the log lines, keeps the filter identifiers,
+     *   and gives a new filter the identifier after the last one ever created.
+     */
+    @Test
+    void testLoad_SameFilters(@TempDir Path directory) throws IOException {
+        // Setup
+        StreamFilter saved = new StreamFilter();
+        for (String line : List.of("QF: Disk full", "QP: disk full", "QX: ERR", "QF: error AND (disk OR io) AND NOT test",
+                "QF: removed", "QF: Hello, World", "QF: hello"))
+            saved.filter(line);
+        saved.filter("UF: 6 world");
+        saved.filter("RF: 5");
+        Path path = directory.resolve("filters.bin");
+        List<String> lines = List.of("LOL: Errors: disk full", "LOL: full disk", "LOL: IO error", "LOL: removed",
+                "LOL: Hello World!", "LOL: test error on disk");
+
+        // Execution
+        saved.saveFilters(path);
+        StreamFilter loaded = StreamFilter.loadFilters(path);
+
+        // Assertion
+        for (String line : lines) assertEquals(saved.filter(line), loaded.filter(line), line);
+        assertEquals("U:\"disk\"; FID=2", loaded.filter("UF: 2 disk"));
+        assertNull(loaded.filter("RF: 5"));
+        assertEquals("A:removed; FID=8", loaded.filter("QF: removed"));
+        assertEquals("M:removed; FID=8", loaded.filter("LOL: removed"));
+    }
+
+    /**
+     * Tests that a snapshot saved while filters are being defined can be loaded.
+     *
+     * Test setup involves:
+     * - A thread defining 5000 filters without pause while the main thread saves the filters again and again.
+     *
+     * The test verifies:
+     * - Each snapshot loads, and gives new filters identifiers after every filter it holds.
+     */
+    @Test
+    void testSave_ConcurrentFilters(@TempDir Path directory) throws Exception {
+        // Setup
+        StreamFilter saved = new StreamFilter();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) saved.filter("QF: term" + i);
+        });
+        Path path = directory.resolve("filters.bin");
+
+        // Execution and Assertion
+        producer.start();
+        do {
+            saved.saveFilters(path);
+            StreamFilter loaded = StreamFilter.loadFilters(path);
+            int last = loaded.filters.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+            String added = loaded.filter("QF: new");
+            assertTrue(Integer.parseInt(added.substring(added.indexOf('=') + 1)) > last, added);
+        } while (producer.isAlive());
+        producer.join();
+    }
+
+    /**
+     * Tests that files which are not intact snapshots of the current format version are rejected.
+     *
+     * Test setup involves:
+     * - A saved snapshot, then copies of it with one byte changed, another format version, or truncated.
+     *
+     * The test verifies:
+     * - Loading a changed or truncated copy fails with an IOException naming the checksum, the version or the format.
+     */
+    @Test
+    void testLoad_Rejected(@TempDir Path directory) throws IOException {
+        // Setup
+        StreamFilter saved = new StreamFilter();
+        saved.filter("QF: disk full");
+        Path path = directory.resolve("filters.bin");
+        saved.saveFilters(path);
+        byte[] bytes = Files.readAllBytes(path);
+        Path corrupted = directory.resolve("corrupted.bin");
+        byte[] changed = bytes.clone();
+        changed[changed.length / 2] ^= 1;
+        Files.write(corrupted, changed);
+        Path otherVersion = directory.resolve("version.bin");
+        Files.write(otherVersion, ByteBuffer.wrap(bytes.clone()).putInt(4, FilterSnapshot.VERSION + 1).array());
+        Path truncated = directory.resolve("truncated.bin");
+        Files.write(truncated, new byte[]{bytes[0], bytes[1], bytes[2], bytes[3]});
+
+        // Execution and Assertion
+        assertTrue(assertThrows(IOException.class, () -> StreamFilter.loadFilters(corrupted)).getMessage().contains("checksum"));
+        assertTrue(assertThrows(IOException.class, () -> StreamFilter.loadFilters(otherVersion)).getMessage().contains("version"));
+        assertTrue(assertThrows(IOException.class, () -> StreamFilter.loadFilters(truncated)).getMessage().contains("Not a filter snapshot"));
+        assertEquals("M:full disk; FID=1", StreamFilter.loadFilters(path).filter("LOL: full disk"));
+    }
+}
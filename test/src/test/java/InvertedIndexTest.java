@@ -0,0 +1,256 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvertedIndexTest {
+
+    /**
+     * Builds the line terms of the given tokens, dropping the tokens unknown to the dictionary.
+     */
+    private static LineTerms lineOf(TermDictionary dictionary, String... tokens) {
+        LineTerms line = new LineTerms();
+        for (String token : tokens) {
+            int termId = dictionary.lookup(token);
+            if (termId >= 0) line.add(termId);
+        }
+        return line;
+    }
+
+    /**
+     * Tests that {@link InvertedIndex#match(LineTerms, MatchScratch)} returns only the filters whose terms are all present in the line.
+     *
+     * Test setup involves:
+     * - Three filters ("error disk", "error", "warning") registered in the index.
+     * - A line containing the tokens "error" and "disk".
+     *
+     * The test verifies:
+     * - The identifiers of the first two filters are returned in ascending order.
+     */
+    @Test
+    void testMatch_AllTermsPresent() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        index.addFilter(new FilterMatchAll(1, "error disk", dictionary));
+        index.addFilter(new FilterMatchAll(2, "error", dictionary));
+        index.addFilter(new FilterMatchAll(3, "warning", dictionary));
+
+        // Execution and Assertion
+        assertArrayEquals(new int[]{1, 2}, index.match(lineOf(dictionary, "disk", "error", "full"), new MatchScratch()));
+    }
+
+    /**
+     * Tests that a filter repeating one of its terms still matches a line containing that term once,
+     * and that the hit counters of one line do not leak into the next.
+     *
+     * Test setup involves:
+     * - A filter "disk disk full" registered in the index.
+     * - A line containing only "disk", followed by a line containing only "full".
+     *
+     * The test verifies:
+     * - Neither line matches on its own, while a line with both tokens does.
+     */
+    @Test
+    void testMatch_DuplicateTermsAndCounterReset() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        index.addFilter(new FilterMatchAll(1, "disk disk full", dictionary));
+
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertEquals(0, index.match(lineOf(dictionary, "disk"), scratch).length);
+        assertEquals(0, index.match(lineOf(dictionary, "full"), scratch).length);
+        assertArrayEquals(new int[]{1}, index.match(lineOf(dictionary, "full", "disk"), scratch));
+    }
+
+    /**
+     * Tests that the signature check of the posting entries rejects filters which cannot match
+     * without changing the result, and that the rejections are counted.
+     *
+     * Test setup involves:
+     * - A filter "error disk" and a filter "error", and a line containing only "error".
+     * - The line is matched with the signature check enabled, then disabled again.
+     *
+     * The test verifies:
+     * - Both matches return only the second filter.
+     * - With the check enabled, both posting entries of "error" are checked and the first filter is rejected;
+     *   with the check disabled, the statistics do not change.
+     */
+    @Test
+    void testMatch_SignatureFilter() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        index.addFilter(new FilterMatchAll(1, "error disk", dictionary));
+        index.addFilter(new FilterMatchAll(2, "error", dictionary));
+        LineTerms line = lineOf(dictionary, "error");
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertFalse(index.isSignatureFilter());
+        index.setSignatureFilter(true);
+        assertArrayEquals(new int[]{2}, index.match(line, scratch));
+        assertEquals(2, index.getSignatureChecks());
+        assertEquals(1, index.getSignatureRejections());
+
+        index.setSignatureFilter(false);
+        assertArrayEquals(new int[]{2}, index.match(line, scratch));
+        assertEquals(2, index.getSignatureChecks());
+    }
+
+    /**
+     * Tests that removed filters stop matching at once and that compaction reclaims their posting entries and slots.
+     *
+     * Test setup involves:
+     * - Four filters sharing the term "error"; the first three are removed one by one.
+     *
+     * The test verifies:
+     * - Removed filters no longer match, and removing one twice fails.
+     * - Once most slots hold removed filters, compaction leaves a single slot and a single posting entry for "error",
+     *   and the remaining filter still matches with its original identifier.
+     */
+    @Test
+    void testRemoveFilter_TombstonesAndCompaction() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        FilterMatchAll[] filters = new FilterMatchAll[4];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = new FilterMatchAll(i + 1, "error " + (char) ('a' + i), dictionary);
+            index.addFilter(filters[i]);
+        }
+        LineTerms line = lineOf(dictionary, "error", "a", "b", "c", "d");
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertTrue(index.removeFilter(filters[0]));
+        assertFalse(index.removeFilter(filters[0]));
+        assertArrayEquals(new int[]{2, 3, 4}, index.match(line, scratch));
+        assertTrue(index.removeFilter(filters[1]));
+        assertTrue(index.removeFilter(filters[2]));
+        index.compact();
+        assertEquals(1, index.size());
+        assertEquals(1, index.snapshot.size);
+        InvertedIndex.Posting posting = index.snapshot.postings[dictionary.lookup("error")];
+        assertArrayEquals(new int[]{0, InvertedIndex.NO_SLOT}, Arrays.copyOf(posting.slots, 2));
+        assertNull(index.snapshot.postings[dictionary.lookup("a")]);
+        assertArrayEquals(new int[]{4}, index.match(line, scratch));
+    }
+
+    /**
+     * Tests that filters with the same terms share one slot, and that a filter whose terms are a superset of an earlier
+     * filter is only evaluated once that filter matched.
+     *
+     * Test setup involves:
+     * - Filters "error", "error disk" and "error disk full", then "Disk, error" and "full disk error" with the same terms
+     *   as the second and third ones.
+     *
+     * The test verifies:
+     * - The five filters use three slots, and only "error" is in the posting lists.
+     * - A line without "error" evaluates no slot, a line with only "error" evaluates "error" and rejects "error disk"
+     *   by its signature, and a line with all terms evaluates the three slots and reports the five filters.
+     * - Removing filters keeps the slots other filters depend on, and the last removal frees them all.
+     */
+    @Test
+    void testMatch_SharedAndSubsumed() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        String[] terms = {"error", "error disk", "error disk full", "Disk, error", "full disk error"};
+        FilterMatchAll[] filters = new FilterMatchAll[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            filters[i] = new FilterMatchAll(i + 1, terms[i], dictionary);
+            index.addFilter(filters[i]);
+        }
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertEquals(3, index.snapshot.size);
+        assertEquals(5, index.size());
+        assertNull(index.snapshot.postings[dictionary.lookup("disk")]);
+        assertEquals(0, index.match(lineOf(dictionary, "disk", "full"), scratch).length);
+        assertEquals(0, index.getSlotEvaluations());
+        assertArrayEquals(new int[]{1}, index.match(lineOf(dictionary, "error"), scratch));
+        assertEquals(1, index.getSlotEvaluations());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, index.match(lineOf(dictionary, "full", "error", "disk"), scratch));
+        assertEquals(4, index.getSlotEvaluations());
+
+        assertTrue(index.removeFilter(filters[1]));
+        assertTrue(index.removeFilter(filters[3]));
+        assertTrue(index.removeFilter(filters[0]));
+        assertArrayEquals(new int[]{3, 5}, index.match(lineOf(dictionary, "full", "error", "disk"), scratch));
+        assertEquals(0, index.match(lineOf(dictionary, "error", "disk"), scratch).length);
+        assertTrue(index.removeFilter(filters[2]));
+        assertTrue(index.removeFilter(filters[4]));
+        assertEquals(0, index.size());
+        assertEquals(0, index.match(lineOf(dictionary, "full", "error", "disk"), scratch).length);
+    }
+
+    /**
+     * Tests that a compaction rebuilding the index places a filter under a subset registered after it.
+     *
+     * Test setup involves:
+     * - A filter "error disk", then a filter "error", then three unrelated filters which are removed.
+     *
+     * The test verifies:
+     * - Before the compaction, both filters are in the posting lists of "error".
+     * - After the compaction, "error disk" is a child of "error" and is no longer in the posting list of "disk",
+     *   and both filters still match.
+     */
+    @Test
+    void testCompact_CompletesLattice() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        index.addFilter(new FilterMatchAll(1, "error disk", dictionary));
+        index.addFilter(new FilterMatchAll(2, "error", dictionary));
+        FilterMatchAll[] unrelated = new FilterMatchAll[3];
+        for (int i = 0; i < unrelated.length; i++) {
+            unrelated[i] = new FilterMatchAll(i + 3, "warning " + (char) ('a' + i), dictionary);
+            index.addFilter(unrelated[i]);
+        }
+        MatchScratch scratch = new MatchScratch();
+        assertNotNull(index.snapshot.postings[dictionary.lookup("disk")]);
+
+        // Execution
+        for (FilterMatchAll filter : unrelated) index.removeFilter(filter);
+        index.compact();
+
+        // Assertion
+        assertEquals(2, index.snapshot.size);
+        assertNull(index.snapshot.postings[dictionary.lookup("disk")]);
+        assertArrayEquals(new int[]{1, 2}, index.match(lineOf(dictionary, "disk", "error"), scratch));
+        assertArrayEquals(new int[]{2}, index.match(lineOf(dictionary, "error"), scratch));
+    }
+
+    /**
+     * Tests that {@link InvertedIndex#replaceFilter(IFilter, IFilter)} swaps the terms of a filter.
+     *
+     * Test setup involves:
+     * - A filter "error disk" replaced by a filter "warning" with the same identifier.
+     *
+     * The test verifies:
+     * - Lines are matched against the new terms only, and the number of filters does not change.
+     */
+    @Test
+    void testReplaceFilter() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        FilterMatchAll filter = new FilterMatchAll(1, "error disk", dictionary);
+        index.addFilter(filter);
+
+        // Execution
+        assertTrue(index.replaceFilter(filter, new FilterMatchAll(1, "warning", dictionary)));
+
+        // Assertion
+        MatchScratch scratch = new MatchScratch();
+        assertEquals(1, index.size());
+        assertEquals(0, index.match(lineOf(dictionary, "error", "disk"), scratch).length);
+        assertArrayEquals(new int[]{1}, index.match(lineOf(dictionary, "warning"), scratch));
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineTokenizerTest {
+
+    /**
+     * Normalizes the given text the way log lines were normalized before the tokenizer was introduced.
+     */
+    private static String[] legacySplit(String text, Locale locale) {
+        return text.trim().replaceAll("\\p{Punct}", "").trim().toLowerCase(locale).split("\s+");
+    }
+
+    /**
+     * Tests that {@link LineTokenizer#split(CharSequence)} produces the same tokens as the former
+     * regular expression based normalization of log lines.
+     *
+     * Test setup involves:
+     * - Lines with punctuation, runs of spaces, tabs, mixed case and non-ASCII letters.
+     * - Lines without any token, which normalize to a single empty token.
+     *
+     * The test verifies:
+     * - The tokens are identical to those of the former normalization for each line.
+     */
+    @Test
+    void testSplit_SameAsLegacyNormalization() {
+        // Setup
+        String[] lines = {
+                "Our Earth is our World, Hello",
+                "  !!World   Hello!  ",
+                "don't\tstop  -  ERROR:disk",
+                "Straße ΟΔΟΣ İstanbul",
+                "...",
+                "",
+                "\t a \u0001"
+        };
+        LineTokenizer tokenizer = new LineTokenizer(Locale.ROOT);
+
+        // Execution and Assertion
+        for (String line : lines)
+            assertArrayEquals(legacySplit(line, Locale.ROOT), tokenizer.split(line), "Tokens differ for |" + line + "|");
+    }
+
+    /**
+     * Tests that the tokenizer folds case with the rules of its locale rather than by ASCII arithmetic
+     * when the locale has special casing rules for ASCII letters.
+     *
+     * Test setup involves:
+     * - A Turkish tokenizer and the line "ISTANBUL".
+     *
+     * The test verifies:
+     * - The upper case 'I' is folded to the dotless 'ı', as {@link String#toLowerCase(Locale)} does.
+     */
+    @Test
+    void testSplit_TurkishLocale() {
+        // Setup
+        Locale turkish = Locale.forLanguageTag("tr-TR");
+        LineTokenizer tokenizer = new LineTokenizer(turkish);
+
+        // Execution and Assertion
+        assertArrayEquals(legacySplit("ISTANBUL", turkish), tokenizer.split("ISTANBUL"));
+    }
+
+    /**
+     * Tests that {@link LineTokenizer#tokenize(CharSequence, int, int, TermDictionary, LineTerms)} only keeps the
+     * tokens known to the dictionary, and clears the line terms of the previous line.
+     *
+     * Test setup involves:
+     * - A dictionary holding the terms "disk" and "full".
+     * - The line "LOL: Disk is FULL!" tokenized after its prefix, then the line "LOL: disk".
+     *
+     * The test verifies:
+     * - The first line holds the identifiers of "disk" and "full" only, the second the identifier of "disk" only.
+     */
+    @Test
+    void testTokenize_KnownTermsOnly() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        int disk = dictionary.intern("disk");
+        int full = dictionary.intern("full");
+        LineTokenizer tokenizer = new LineTokenizer();
+        LineTerms line = new LineTerms();
+
+        // Execution and Assertion
+        String first = "LOL: Disk is FULL!";
+        tokenizer.tokenize(first, 4, first.length(), dictionary, line);
+        assertEquals(2, line.size());
+        assertTrue(line.contains(disk));
+        assertTrue(line.contains(full));
+
+        String second = "LOL: disk";
+        tokenizer.tokenize(second, 4, second.length(), dictionary, line);
+        assertEquals(1, line.size());
+        assertFalse(line.contains(full));
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileFilterTest {
+
+    /**
+     * Tests that {@link MappedFileFilter#filterFile(Path, java.nio.channels.WritableByteChannel)} writes the same
+     * responses as {@link StreamFilter#filter(String)}, with lines crossing the boundaries of the mapped chunks.
+     *
+     * Test setup involves:
+     * - An input file with "\n" and "\r\n" line endings, a non-ASCII log line and no line break at the end.
+     * - A chunk size of 16 bytes, smaller than most of the lines.
+     *
+     * The test verifies:
+     * - The output holds the response of each filter line and matching log line, in input order.
+     */
+    @Test
+    void testFilterFile_SmallChunks(@TempDir Path directory) throws IOException {
+        // Setup
+        Path input = directory.resolve("input.txt");
+        Files.writeString(input, "QF: Hello\nLOL: World Hello!\r\nQF: disk  FULL\nLOL: Straße disk is full\n"
+                + "LOL: nothing to see\nLOL:   Hello, the disk is full.  ", StandardCharsets.UTF_8);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String separator = System.lineSeparator();
+
+        // Execution
+        new MappedFileFilter(new StreamFilter(), 16).filterFile(input, Channels.newChannel(output));
+
+        // Assertion
+        assertEquals("A:hello; FID=1" + separator
+                + "M:World Hello!; FID=1" + separator
+                + "A:disk full; FID=2" + separator
+                + "M:Straße disk is full; FID=2" + separator
+                + "M:Hello, the disk is full.; FID=1, 2" + separator, output.toString(StandardCharsets.UTF_8));
+    }
+}
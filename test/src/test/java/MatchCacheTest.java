@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchCacheTest {
+
+    /**
+     * Tests that a line is cached on its second miss, found whatever the order of its terms, and invalidated by a new epoch.
+     *
+     * Test setup involves:
+     * - A small cache, and the term identifiers of two lines holding the same terms in different orders.
+     *
+     * The test verifies:
+     * - The first miss is only remembered, the second one admits the result, and the line with the other order hits it.
+     * - After {@link MatchCache#invalidate()}, the entry is no longer served, and the hits and misses are counted.
+     */
+    @Test
+    void testGet_AdmissionAndEpoch() {
+        // Setup
+        MatchCache cache = new MatchCache(8, 1 << 20);
+        LineTerms line = terms(3, 1, 2);
+        LineTerms reordered = terms(2, 3, 1);
+        int[] matched = {4, 7};
+        long hash = MatchCache.hash(line);
+
+        // Execution and Assertion
+        assertEquals(hash, MatchCache.hash(reordered));
+        int epoch = cache.getEpoch();
+        assertNull(cache.get(line, hash, epoch));
+        cache.put(line, hash, epoch, matched);
+        assertNull(cache.get(line, hash, epoch));
+        cache.put(line, hash, epoch, matched);
+        assertSame(matched, cache.get(reordered, hash, epoch));
+        assertNull(cache.get(terms(1, 2), MatchCache.hash(terms(1, 2)), epoch));
+        cache.invalidate();
+        assertNull(cache.get(line, hash, cache.getEpoch()));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(0.2, cache.getHitRatio(), 1e-9);
+    }
+
+    /**
+     * Tests that the estimated memory of the entries stays within the bound given to the cache.
+     *
+     * Test setup involves:
+     * - A cache of 64 entries bounded to 1000 bytes, and 64 distinct lines each matched twice with 20 filters.
+     *
+     * The test verifies:
+     * - Only the entries fitting in the bound are admitted, and a disabled cache holds nothing.
+     */
+    @Test
+    void testPut_MemoryBound() {
+        // Setup
+        MatchCache cache = new MatchCache(64, 1000);
+        MatchCache disabled = new MatchCache(0, 1000);
+        int[] matched = new int[20];
+
+        // Execution
+        for (int i = 0; i < 64; i++) {
+            LineTerms line = terms(i, i + 100);
+            for (int j = 0; j < 2; j++) cache.put(line, MatchCache.hash(line), cache.getEpoch(), matched);
+        }
+
+        // Assertion
+        assertTrue(cache.getBytes() > 0);
+        assertTrue(cache.getBytes() <= 1000, cache.getBytes() + " > 1000");
+        assertFalse(disabled.isEnabled());
+    }
+
+    private static LineTerms terms(int... termIds) {
+        LineTerms ret = new LineTerms();
+        for (int termId : termIds) ret.add(termId);
+        return ret;
+    }
+}
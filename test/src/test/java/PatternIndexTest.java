@@ -0,0 +1,162 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatternIndexTest {
+
+    private static int[] match(PatternIndex index, String line, MatchScratch scratch) {
+        scratch.tokenizer.tokenize(line, 0, line.length(), new TermDictionary(), scratch.lineTerms, true);
+        return index.match(scratch.lineTerms, scratch);
+    }
+
+    /**
+     * Tests that phrase filters only match their terms as consecutive tokens of the line, in order.
+     *
+     * Test setup involves:
+     * - A phrase filter "disk full" and a phrase filter "full disk", sharing their terms.
+     *
+     * The test verifies:
+     * - A line matches the phrase whose tokens it holds in that order, and neither phrase when the terms are apart
+     *   or are only parts of longer tokens.
+     * - Against an unordered set of terms, a phrase only requires all of its terms.
+     */
+    @Test
+    void testMatch_Phrase() {
+        // Setup
+        PatternIndex index = new PatternIndex();
+        index.addFilter(new FilterPhrase(1, "disk full"));
+        index.addFilter(new FilterPhrase(2, "full disk"));
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertArrayEquals(new int[]{1}, match(index, "Error: Disk FULL!", scratch));
+        assertArrayEquals(new int[]{1, 2}, match(index, "disk full disk", scratch));
+        assertArrayEquals(new int[0], match(index, "disk is full", scratch));
+        assertArrayEquals(new int[0], match(index, "ramdisk fullness", scratch));
+        assertTrue(new FilterPhrase(1, "disk full").doMatch(new HashSet<>(List.of("full", "is", "disk"))));
+        assertFalse(new FilterPhrase(1, "disk full").doMatch(new HashSet<>(List.of("disk", "fullness"))));
+    }
+
+    /**
+     * Tests that prefix filters match once every term starts a token of the line, and that removed or replaced
+     * filters stop matching.
+     *
+     * Test setup involves:
+     * - A prefix filter "err* disk*", then the same filter replaced by "warn*", and a second filter removed.
+     *
+     * The test verifies:
+     * - Each term of a prefix filter counts once, however many tokens it starts, and only the live filters match.
+     */
+    @Test
+    void testMatch_PrefixAddRemoveReplace() {
+        // Setup
+        PatternIndex index = new PatternIndex();
+        FilterPrefix errors = new FilterPrefix(1, "err disk");
+        FilterPrefix disks = new FilterPrefix(2, "disk");
+        index.addFilter(errors);
+        index.addFilter(disks);
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution and Assertion
+        assertEquals("err* disk*", errors.getTerms());
+        assertArrayEquals(new int[]{1, 2}, match(index, "errors on disks, error on diskette", scratch));
+        assertArrayEquals(new int[]{2}, match(index, "disks are full", scratch));
+        assertArrayEquals(new int[0], match(index, "no terror on ramdisk", scratch));
+        assertTrue(index.replaceFilter(errors, new FilterPrefix(1, "warn")));
+        assertTrue(index.removeFilter(disks));
+        assertFalse(index.removeFilter(disks));
+        assertEquals(1, index.size());
+        assertArrayEquals(new int[0], match(index, "errors on disks", scratch));
+        assertArrayEquals(new int[]{1}, match(index, "warning", scratch));
+    }
+
+    /**
+     * Tests that adding and removing filters does not compile the automaton again, until it is compiled for all of them.
+     *
+     * Test setup involves:
+     * - A compiled automaton of four prefix filters, then a phrase filter added, one of the prefix filters removed
+     *   and another one replaced, which leaves too few tombstones for a compilation in the background.
+     *
+     * The test verifies:
+     * - The changes keep the compiled automaton: the added filters are pending and match at once, and the removed
+     *   filter is a tombstone which no longer matches.
+     * - Compiling leaves no pending filter and only the live filters in the automaton, with the same matches.
+     */
+    @Test
+    void testCompile_PendingAndRemoved() {
+        // Setup
+        PatternIndex index = new PatternIndex();
+        FilterPrefix errors = new FilterPrefix(1, "err");
+        FilterPrefix disks = new FilterPrefix(2, "disk");
+        index.addFilter(errors);
+        index.addFilter(disks);
+        index.addFilter(new FilterPrefix(4, "net"));
+        index.addFilter(new FilterPrefix(5, "cpu"));
+        index.compile();
+        PatternIndex.Automaton compiled = index.snapshot.automaton;
+        MatchScratch scratch = new MatchScratch();
+
+        // Execution
+        index.addFilter(new FilterPhrase(3, "disk full"));
+        assertTrue(index.removeFilter(disks));
+        assertTrue(index.replaceFilter(errors, new FilterPrefix(1, "warn")));
+
+        // Assertion
+        assertSame(compiled, index.snapshot.automaton);
+        assertEquals(2, index.snapshot.pending.length);
+        assertEquals(4, index.size());
+        assertArrayEquals(new int[]{1, 3}, match(index, "warning: disk full, error", scratch));
+        assertArrayEquals(new int[0], match(index, "error on disks", scratch));
+        index.compile();
+        assertEquals(0, index.snapshot.pending.length);
+        assertEquals(4, index.snapshot.automaton.filterIdentifiers.length);
+        assertArrayEquals(new int[]{1, 3}, match(index, "warning: disk full, error", scratch));
+        assertArrayEquals(new int[0], match(index, "error on disks", scratch));
+    }
+
+    /**
+     * Tests that the automaton finds the same filters as evaluating {@link IPatternFilter#doMatch(LineTerms)} on each filter.
+     *
+     * Test setup involves:
+     * - 300 random phrase and prefix filters over a small vocabulary, whose words are prefixes of one another,
+     *   and 500 random lines over the same vocabulary.
+     *
+     * The test verifies:
+     * - For each line, the automaton returns exactly the filters whose doMatch() accepts the line, in ascending order.
+     */
+    @Test
+    void testMatch_SameAsDoMatch() {
+        // Setup
+        String[] words = {"a", "ab", "abc", "b", "ba", "bab", "c", "ca"};
+        Random random = new Random(7);
+        PatternIndex index = new PatternIndex();
+        List<IPatternFilter> filters = new ArrayList<>();
+        for (int id = 1; id <= 300; id++) {
+            StringBuilder terms = new StringBuilder();
+            for (int t = 1 + random.nextInt(3); t > 0; t--) terms.append(' ').append(words[random.nextInt(words.length)]);
+            IPatternFilter filter = random.nextBoolean() ? new FilterPhrase(id, terms.toString().trim())
+                    : new FilterPrefix(id, terms.toString().trim());
+            filters.add(filter);
+            index.addFilter(filter);
+        }
+        MatchScratch scratch = new MatchScratch();
+
+        for (int l = 0; l < 500; l++) {
+            StringBuilder line = new StringBuilder();
+            for (int w = random.nextInt(8); w > 0; w--) line.append(' ').append(words[random.nextInt(words.length)]);
+
+            // Execution
+            int[] matched = match(index, line.toString(), scratch);
+
+            // Assertion
+            int[] expected = filters.stream().filter(f -> f.doMatch(scratch.lineTerms))
+                    .mapToInt(IFilter::getFilterIdentifier).toArray();
+            assertArrayEquals(expected, matched, line.toString());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedStreamFilterTest {
+
+    /**
+     * Tests that a ShardedStreamFilter gives the same responses as a StreamFilter, line by line and in batches.
+     *
+     * Test setup involves:
+     * - A seeded script of filters of every kind, removals, updates and runs of log lines longer than a batch,
+     *   processed by a StreamFilter and by ShardedStreamFilters of 1 and 3 shards.
+     *
+     * The test verifies:
+     * - Every line has the same response, whether processed one by one or by {@link ShardedStreamFilter#filterBatch(List)}.
+     */
+    @Test
+    void testFilter_SameResponses() {
+        // Setup
+        List<String> script = script(new Random(42));
+        StreamFilter expected = new StreamFilter();
+        String[] responses = new String[script.size()];
+        for (int i = 0; i < script.size(); i++) responses[i] = expected.filter(script.get(i));
+
+        // Execution and Assertion
+        for (int shardCount : new int[]{1, 3}) {
+            try (ShardedStreamFilter oneByOne = new ShardedStreamFilter(shardCount);
+                 ShardedStreamFilter batched = new ShardedStreamFilter(shardCount)) {
+                for (int i = 0; i < script.size(); i++) assertEquals(responses[i], oneByOne.filter(script.get(i)), script.get(i));
+                assertArrayEquals(responses, batched.filterBatch(script));
+            }
+        }
+    }
+
+    /**
+     * Tests that removals leaving a shard much smaller than the others are rebalanced by the next filter added.
+     *
+     * Test setup involves:
+     * - 3 shards holding 600 filters, then the removal of all the filters of the first shard.
+     *
+     * The test verifies:
+     * - Once a filter is added, the shard sizes differ by at most {@link ShardedStreamFilter#REBALANCE_THRESHOLD},
+     *   and the moved filters still match, under their identifiers, and can be removed.
+     */
+    @Test
+    void testFilter_Rebalance() {
+        // Setup
+        try (ShardedStreamFilter aFilter = new ShardedStreamFilter(3)) {
+            for (int i = 1; i <= 600; i++) aFilter.filter("QF: term" + i);
+            List<Integer> removed = new ArrayList<>(aFilter.shards[0].filters.keySet());
+            for (int filterIdentifier : removed) aFilter.filter("RF: " + filterIdentifier);
+
+            // Execution
+            assertEquals("A:term601; FID=601", aFilter.filter("QF: term601"));
+
+            // Assertion
+            int smallest = Integer.MAX_VALUE, largest = 0;
+            for (StreamFilter shard : aFilter.shards) {
+                smallest = Math.min(smallest, shard.filters.size());
+                largest = Math.max(largest, shard.filters.size());
+            }
+            assertTrue(largest - smallest <= ShardedStreamFilter.REBALANCE_THRESHOLD, smallest + " " + largest);
+            int kept = (removed.contains(1) ? 2 : 1);
+            assertEquals("M:term" + kept + " term601; FID=" + kept + ", 601", aFilter.filter("LOL: term" + kept + " term601"));
+            assertEquals("R:term" + kept + "; FID=" + kept, aFilter.filter("RF: " + kept));
+        }
+    }
+
+    /**
+     * Tests that moving filters between shards is not a filter change.
+     *
+     * Test setup involves:
+     * - 3 shards with their metrics enabled, holding 600 filters matched by one log line, then the removal of all
+     *   the filters of the first shard.
+     *
+     * The test verifies:
+     * - Adding a filter, which rebalances the shards, counts one filter change, and every remaining filter keeps
+     *   its hit in the metrics of the shard now holding it.
+     */
+    @Test
+    void testRebalance_KeepsMetrics() {
+        // Setup
+        try (ShardedStreamFilter aFilter = new ShardedStreamFilter(3)) {
+            for (StreamFilter shard : aFilter.shards) shard.getMetrics().setEnabled(true);
+            StringBuilder line = new StringBuilder("LOL:");
+            for (int i = 1; i <= 600; i++) {
+                aFilter.filter("QF: term" + i);
+                line.append(" term").append(i);
+            }
+            aFilter.filter(line.toString());
+            List<Integer> removed = new ArrayList<>(aFilter.shards[0].filters.keySet());
+            for (int filterIdentifier : removed) aFilter.filter("RF: " + filterIdentifier);
+            long changes = 0;
+            for (StreamFilter shard : aFilter.shards) changes += shard.getMetrics().getFilterChanges();
+
+            // Execution
+            aFilter.filter("QF: term601");
+
+            // Assertion
+            for (StreamFilter shard : aFilter.shards) {
+                changes -= shard.getMetrics().getFilterChanges();
+                for (int filterIdentifier : shard.filters.keySet())
+                    assertEquals(filterIdentifier == 601 ? null : 1L, shard.getMetrics().getFilterHits().get(filterIdentifier), "Hits of " + filterIdentifier);
+            }
+            assertEquals(-1, changes);
+            assertTrue(aFilter.shards[0].filters.size() > 1);
+        }
+    }
+
+    /**
+     * Generates filter lines of every kind over a small vocabulary, removals and updates of known and unknown filters,
+     * and runs of log lines of various lengths.
+     */
+    private static List<String> script(Random random) {
+        String[] words = {"disk", "full", "error", "io", "test", "hello", "world", "timeout", "retry", "user"};
+        List<String> ret = new ArrayList<>();
+        int filterCount = 0;
+        for (int step = 0; step < 60; step++) {
+            int kind = random.nextInt(10);
+            String a = words[random.nextInt(words.length)], b = words[random.nextInt(words.length)];
+            if (kind < 4) ret.add("QF: " + a + " " + b);
+            else if (kind == 4) ret.add("QP: " + a + " " + b);
+            else if (kind == 5) ret.add("QX: " + a.substring(0, 2));
+            else if (kind == 6) ret.add("QF: " + a + " AND NOT " + b);
+            else if (kind == 7) ret.add("RF: " + (1 + random.nextInt(filterCount + 2)));
+            else if (kind == 8) ret.add("UF: " + (1 + random.nextInt(filterCount + 2)) + " " + a);
+            else ret.add("XX: unknown");
+            if (kind <= 6) filterCount++;
+            int lines = random.nextInt(3 * ShardedStreamFilter.BATCH_SIZE);
+            for (int i = 0; i < lines; i++) {
+                StringBuilder line = new StringBuilder("LOL:");
+                for (int j = random.nextInt(6); j >= 0; j--) line.append(' ').append(words[random.nextInt(words.length)]).append(',');
+                ret.add(line.toString());
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamFilterProcessorTest {
+
+    /**
+     * Tests that the responses of several concurrent sources are published in the order of the lines of each source,
+     * to a subscriber requesting one response at a time.
+     *
+     * Test setup involves:
+     * - One filter per source, then 3 sources publishing 2000 matching log lines each, one of them through the processor
+     *   itself and the others through {@link StreamFilterProcessor#newSource()}, and a subscriber slower than them.
+     *
+     * The test verifies:
+     * - The subscriber receives every response once, those of each source in order, then the completion
+     *   once the first source completed.
+     */
+    @Test
+    void testSubscribe_OrderWithinSource() throws Exception {
+        // Setup
+        StreamFilter streamFilter = new StreamFilter();
+        for (int source = 0; source < 3; source++) streamFilter.filter("QF: source" + source);
+        StreamFilterProcessor processor = new StreamFilterProcessor(streamFilter);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        // Counted down by the responses to the last lines of the other sources
+        CountDownLatch othersDone = new CountDownLatch(2);
+        processor.subscribe(new Flow.Subscriber<>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription aSubscription) {
+                subscription = aSubscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(String response) {
+                received.add(response);
+                if (response.equals("M:source1 line1999; FID=2") || response.equals("M:source2 line1999; FID=3")) othersDone.countDown();
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+        List<SubmissionPublisher<String>> sources = new ArrayList<>();
+        for (int source = 0; source < 3; source++) {
+            SubmissionPublisher<String> publisher = new SubmissionPublisher<>();
+            publisher.subscribe(source == 0 ? processor : processor.newSource());
+            sources.add(publisher);
+        }
+
+        // Execution
+        List<Thread> threads = new ArrayList<>();
+        for (int source = 2; source >= 0; source--) {
+            int aSource = source;
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 2000; i++) sources.get(aSource).submit("LOL: source" + aSource + " line" + i);
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+        sources.get(2).close();
+        sources.get(1).close();
+        // The other sources are done once the responses of their last lines are received
+        assertTrue(othersDone.await(30, TimeUnit.SECONDS));
+        sources.get(0).close();
+        completed.get(30, TimeUnit.SECONDS);
+
+        // Assertion
+        assertEquals(6000, received.size());
+        int[] next = new int[3];
+        for (String response : received) {
+            int source = response.charAt("M:source".length()) - '0';
+            assertEquals("M:source" + source + " line" + next[source] + "; FID=" + (source + 1), response);
+            next[source]++;
+        }
+    }
+
+    /**
+     * Tests that the blocking variant gives each calling thread the response of its own line, as StreamFilter does.
+     *
+     * Test setup involves:
+     * - 100 virtual threads, each one defining a filter and processing log lines with {@link StreamFilterProcessor#filter(String)},
+     *   with room for only 8 waiting lines.
+     *
+     * The test verifies:
+     * - Each thread gets its filter and the match of each of its lines; after {@link StreamFilterProcessor#close()},
+     *   the subscribers are completed and new lines are rejected.
+     */
+    @Test
+    void testFilter_Blocking() throws Exception {
+        // Setup
+        StreamFilterProcessor processor = new StreamFilterProcessor(new StreamFilter(), 8);
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        processor.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+            }
+
+            @Override
+            public void onNext(String response) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+
+        // Execution and Assertion
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> callers = new ArrayList<>();
+            for (int caller = 0; caller < 100; caller++) {
+                int aCaller = caller;
+                callers.add(executor.submit(() -> {
+                    String added = processor.filter("QF: caller" + aCaller);
+                    assertTrue(added.startsWith("A:caller" + aCaller + "; FID="), added);
+                    String filterIdentifier = added.substring(added.indexOf('=') + 1);
+                    for (int i = 0; i < 20; i++)
+                        assertEquals("M:caller" + aCaller + " " + i + "; FID=" + filterIdentifier, processor.filter("LOL: caller" + aCaller + " " + i));
+                    assertNull(processor.filter("LOL: nobody"));
+                    return null;
+                }));
+            }
+            for (Future<?> aCaller : callers) aCaller.get();
+        }
+        processor.close();
+        completed.get(30, TimeUnit.SECONDS);
+        assertThrows(IllegalStateException.class, () -> processor.filter("LOL: caller1"));
+    }
+
+    /**
+     * Tests that callers of the blocking variant racing with {@link StreamFilterProcessor#close()} are never left waiting.
+     *
+     * Test setup involves:
+     * - 50 virtual threads calling {@link StreamFilterProcessor#filter(String)} until it is rejected, 20 times over,
+     *   and a close as soon as the threads are started.
+     *
+     * The test verifies:
+     * - Every thread ends with the rejection of a line in a bounded time.
+     */
+    @Test
+    void testFilter_Close() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            // Setup
+            StreamFilterProcessor processor = new StreamFilterProcessor(new StreamFilter(), 8);
+
+            // Execution and Assertion
+            // Not closed by a try-with-resources, which would wait for a caller left waiting
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+            List<Future<?>> callers = new ArrayList<>();
+            for (int caller = 0; caller < 50; caller++) {
+                callers.add(executor.submit(() -> {
+                    while (true) {
+                        try {
+                            processor.filter("LOL: nobody");
+                        } catch (IllegalStateException e) {
+                            return null;
+                        }
+                    }
+                }));
+            }
+            processor.close();
+            for (Future<?> aCaller : callers) aCaller.get(30, TimeUnit.SECONDS);
+            executor.shutdown();
+        }
+    }
+}
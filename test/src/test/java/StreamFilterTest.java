@@ -0,0 +1,302 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamFilterTest {
+
+    /**
+     * Tests that {@link StreamFilter#filter(String)} produces the responses described in the Readme.
+     *
+     * Test setup involves:
+     * - The example input of {@link Main}: two filters interleaved with four log lines.
+     *
+     * The test verifies:
+     * - Filter lines are acknowledged with their identifier, and each log line lists the filters defined before it that match.
+     */
+    @Test
+    void testFilter_Example() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+
+        // Execution and Assertion
+        assertEquals("A:hello; FID=1", aFilter.filter("QF: Hello"));
+        assertEquals("M:World Hello!; FID=1", aFilter.filter("LOL: World Hello!"));
+        assertEquals("A:world; FID=2", aFilter.filter("QF: World"));
+        assertNull(aFilter.filter("LOL: Our Earth"));
+        assertEquals("M:Our Earth is our World, Hello; FID=1, 2", aFilter.filter("LOL: Our Earth is our World, Hello"));
+    }
+
+    /**
+     * Tests that {@link StreamFilter#filter(String, ResultSink)} hands each response to the sink without building it.
+     *
+     * Test setup involves:
+     * - A sink recording the filters it receives, and the trimmed log line and identifiers of each match.
+     *
+     * The test verifies:
+     * - The sink receives the new filter, then the log line range without its prefix and surrounding whitespace
+     *   and the identifiers as a sorted int array; a log line without a match reaches no sink method.
+     */
+    @Test
+    void testFilter_Sink() throws IOException {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        List<String> received = new ArrayList<>();
+        ResultSink sink = new ResultSink() {
+            @Override
+            public void filterAdded(IFilter filter) {
+                received.add("added " + filter.getFilterIdentifier());
+            }
+
+            @Override
+            public void filterRemoved(IFilter filter) {
+                received.add("removed " + filter.getFilterIdentifier());
+            }
+
+            @Override
+            public void filterUpdated(IFilter filter) {
+                received.add("updated " + filter.getFilterIdentifier());
+            }
+
+            @Override
+            public void lineMatched(CharSequence line, int from, int to, int[] filterIdentifiers) {
+                received.add(line.subSequence(from, to) + " " + Arrays.toString(filterIdentifiers));
+            }
+
+            @Override
+            public void lineUnknown(String line) {
+                received.add("unknown " + line);
+            }
+        };
+
+        // Execution and Assertion
+        assertTrue(aFilter.filter("QF: disk", sink));
+        assertTrue(aFilter.filter("QF: full", sink));
+        assertFalse(aFilter.filter("LOL: nothing", sink));
+        assertTrue(aFilter.filter("LOL:   Disk is full!  ", sink));
+        assertEquals(List.of("added 1", "added 2", "Disk is full! [1, 2]"), received);
+    }
+
+    /**
+     * Tests that filters can be removed and updated with "RF:" and "UF:" lines without changing the identifiers.
+     *
+     * Test setup involves:
+     * - Two filters; the first is updated with new terms, then the second is removed.
+     * - Lines referring to unknown or malformed identifiers.
+     *
+     * The test verifies:
+     * - Updates and removals are acknowledged with the filter terms and identifier, and log lines only match the live filters.
+     * - Unknown or malformed identifiers get no response, and a new filter gets the next identifier.
+     */
+    @Test
+    void testFilter_RemoveAndUpdate() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        aFilter.filter("QF: Hello");
+        aFilter.filter("QF: World");
+
+        // Execution and Assertion
+        assertEquals("U:disk full; FID=1", aFilter.filter("UF: 1   Disk FULL"));
+        assertEquals("M:Hello World; FID=2", aFilter.filter("LOL: Hello World"));
+        assertEquals("M:the disk is full, world; FID=1, 2", aFilter.filter("LOL: the disk is full, world"));
+        assertEquals("R:world; FID=2", aFilter.filter("RF: 2"));
+        assertNull(aFilter.filter("LOL: Hello World"));
+        assertNull(aFilter.filter("RF: 2"));
+        assertNull(aFilter.filter("UF: 7 error"));
+        assertNull(aFilter.filter("RF: two"));
+        assertEquals("A:world; FID=3", aFilter.filter("QF: World"));
+        assertEquals("M:the disk is full, world; FID=1, 3", aFilter.filter("LOL: the disk is full, world"));
+    }
+
+    /**
+     * Tests that phrase ("QP:") and prefix ("QX:") filters are matched along with the filters matching all terms.
+     *
+     * Test setup involves:
+     * - A filter matching all terms, a phrase filter and a prefix filter; the phrase filter is then updated and the
+     *   prefix filter removed.
+     *
+     * The test verifies:
+     * - Each filter line is acknowledged with the terms of its kind, a log line lists all the kinds of filters it matches,
+     *   and an updated phrase filter stays a phrase filter.
+     */
+    @Test
+    void testFilter_PhraseAndPrefix() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+
+        // Execution and Assertion
+        assertEquals("A:disk full; FID=1", aFilter.filter("QF: Disk full"));
+        assertEquals("A:\"disk full\"; FID=2", aFilter.filter("QP: Disk full"));
+        assertEquals("A:err* disk*; FID=3", aFilter.filter("QX: ERR, disk"));
+        assertEquals("M:Errors: disk full; FID=1, 2, 3", aFilter.filter("LOL: Errors: disk full"));
+        assertEquals("M:full disk; FID=1", aFilter.filter("LOL: full disk"));
+        assertEquals("M:error on disks; FID=3", aFilter.filter("LOL: error on disks"));
+        assertEquals("U:\"full disk\"; FID=2", aFilter.filter("UF: 2 full disk"));
+        assertEquals("M:full disk; FID=1, 2", aFilter.filter("LOL: full disk"));
+        assertEquals("R:err* disk*; FID=3", aFilter.filter("RF: 3"));
+        assertNull(aFilter.filter("LOL: error on disks"));
+    }
+
+    /**
+     * Tests that "QF:" lines with boolean operators define expression filters, acknowledged and matched like the other filters.
+     *
+     * Test setup involves:
+     * - An expression filter and a plain filter; the expression filter is then updated, and a malformed expression is added.
+     * - Plain filters with parentheses or an upper case NOT but no AND or OR between two operands.
+     *
+     * The test verifies:
+     * - The expression is acknowledged in its normalized text, log lines list it only when they satisfy it,
+     *   and a malformed expression falls back to a filter matching all its words.
+     * - Parentheses without an operator are punctuation, and NOT alone is a term, as before expressions were supported.
+     */
+    @Test
+    void testFilter_Expression() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+
+        // Execution and Assertion
+        assertEquals("A:error AND (disk OR io) AND NOT test; FID=1", aFilter.filter("QF: error AND (Disk OR IO) AND NOT test"));
+        assertEquals("A:disk; FID=2", aFilter.filter("QF: disk"));
+        assertEquals("M:Error: disk full; FID=1, 2", aFilter.filter("LOL: Error: disk full"));
+        assertEquals("M:IO error; FID=1", aFilter.filter("LOL: IO error"));
+        assertEquals("M:test error on disk; FID=2", aFilter.filter("LOL: test error on disk"));
+        assertNull(aFilter.filter("LOL: error"));
+        assertEquals("U:warn OR test; FID=1", aFilter.filter("UF: 1 warn OR test"));
+        assertEquals("M:test error on disk; FID=1, 2", aFilter.filter("LOL: test error on disk"));
+        assertEquals("A:error and disk; FID=3", aFilter.filter("QF: (error AND disk"));
+        assertEquals("M:AND error, disk; FID=2, 3", aFilter.filter("LOL: AND error, disk"));
+        assertEquals("A:foobar; FID=4", aFilter.filter("QF: foo(bar)"));
+        assertEquals("A:not found; FID=5", aFilter.filter("QF: NOT FOUND"));
+        assertEquals("M:Page not found: foobar; FID=4, 5", aFilter.filter("LOL: Page not found: foobar"));
+    }
+
+    /**
+     * Tests that repeated log lines are answered from the match cache until the filters change.
+     *
+     * Test setup involves:
+     * - A filter, and the same log line, with varying punctuation and word order, processed before and after
+     *   another filter is added and the first one removed.
+     *
+     * The test verifies:
+     * - Each response lists exactly the filters live at that time, and the repetitions within one filter set hit the cache.
+     */
+    @Test
+    void testFilter_MatchCache() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        aFilter.filter("QF: heartbeat");
+
+        // Execution and Assertion
+        for (int i = 0; i < 3; i++) assertEquals("M:Heartbeat OK; FID=1", aFilter.filter("LOL: Heartbeat OK"));
+        assertEquals("M:ok, heartbeat!; FID=1", aFilter.filter("LOL: ok, heartbeat!"));
+        assertEquals(2, aFilter.getMatchCache().getHits());
+        assertEquals("A:ok; FID=2", aFilter.filter("QF: OK"));
+        for (int i = 0; i < 3; i++) assertEquals("M:Heartbeat OK; FID=1, 2", aFilter.filter("LOL: Heartbeat OK"));
+        assertEquals("R:heartbeat; FID=1", aFilter.filter("RF: 1"));
+        for (int i = 0; i < 3; i++) assertEquals("M:Heartbeat OK; FID=2", aFilter.filter("LOL: Heartbeat OK"));
+        assertEquals(4, aFilter.getMatchCache().getHits());
+        assertEquals(6, aFilter.getMatchCache().getMisses());
+    }
+
+    /**
+     * Tests that the signature check of the inverted index can be switched on the StreamFilter and exposes its statistics.
+     *
+     * Test setup involves:
+     * - A StreamFilter without match cache and the filters "error disk" and "error".
+     *
+     * The test verifies:
+     * - The check is disabled by default; once enabled, the line "error" still matches only the second filter,
+     *   the first one being rejected by its signature, and once disabled again the statistics stop changing.
+     */
+    @Test
+    void testFilter_SignatureFilter() {
+        // Setup
+        StreamFilter aFilter = new StreamFilter(0, 0);
+        aFilter.filter("QF: error disk");
+        aFilter.filter("QF: error");
+
+        // Execution and Assertion
+        assertFalse(aFilter.isSignatureFilter());
+        aFilter.setSignatureFilter(true);
+        assertTrue(aFilter.isSignatureFilter());
+        assertEquals("M:error; FID=2", aFilter.filter("LOL: error"));
+        assertEquals(2, aFilter.getSignatureChecks());
+        assertEquals(1, aFilter.getSignatureRejections());
+        aFilter.setSignatureFilter(false);
+        assertEquals("M:error; FID=2", aFilter.filter("LOL: error"));
+        assertEquals(2, aFilter.getSignatureChecks());
+    }
+
+    /**
+     * Tests that {@link StreamFilter#filterBatch(List)} returns the same responses as processing the lines one by one.
+     *
+     * Test setup involves:
+     * - Long runs of log lines, large enough to be matched in parallel, separated by filter lines.
+     *
+     * The test verifies:
+     * - The responses are in input order, and each log line is only matched by the filters defined before it.
+     */
+    @Test
+    void testFilterBatch_SameAsLineByLine() {
+        // Setup
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i % 250 == 0) lines.add("QF: error " + i / 250);
+            lines.add("LOL: Error " + i % 4 + " at line " + i);
+        }
+        StreamFilter lineByLine = new StreamFilter();
+        String[] expected = lines.stream().map(lineByLine::filter).toArray(String[]::new);
+
+        // Execution and Assertion
+        assertArrayEquals(expected, new StreamFilter().filterBatch(lines));
+    }
+
+    /**
+     * Tests that one StreamFilter can be shared by threads registering filters and matching log lines concurrently.
+     *
+     * Test setup involves:
+     * - Four threads, each registering its own filters ("shared t0x0", "shared t0x1", ...) and matching a line with the
+     *   terms of each filter right after registering it.
+     *
+     * The test verifies:
+     * - Each line is matched by the filter its thread has just registered, whatever the other threads are doing,
+     *   and all filter identifiers are distinct.
+     */
+    @Test
+    void testFilter_ConcurrentProducers() throws Exception {
+        // Setup
+        StreamFilter aFilter = new StreamFilter();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+
+        // Execution
+        for (int t = 0; t < 4; t++) {
+            String thread = "t" + t;
+            results.add(executor.submit(() -> {
+                List<Integer> identifiers = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    String added = aFilter.filter("QF: shared " + thread + "x" + i);
+                    String identifier = added.substring(added.indexOf("FID=") + 4);
+                    String matched = aFilter.filter("LOL: Shared, " + thread + "x" + i + "!");
+                    // Assertion
+                    assertTrue(matched.matches(".*FID=(.*, )?" + identifier + "(, .*)?"), matched + " misses " + identifier);
+                    identifiers.add(Integer.parseInt(identifier));
+                }
+                return identifiers;
+            }));
+        }
+        executor.shutdown();
+
+        // Assertion
+        List<Integer> identifiers = new ArrayList<>();
+        for (Future<List<Integer>> result : results) identifiers.addAll(result.get());
+        assertEquals(2000, identifiers.stream().distinct().count());
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermStatisticsTest {
+
+    /**
+     * Tests that the statistics publish estimates after a period of sampled lines, and that filters are then
+     * probed rarest first without changing their matches.
+     *
+     * Test setup involves:
+     * - A filter "info user timeout" whose first term occurs in every line, the second in one line out of 4
+     *   and the third in none.
+     * - Enough lines for one period of the statistics, recorded by one thread.
+     *
+     * The test verifies:
+     * - Estimates are published exactly once, after the last line of the period, and rank the terms by frequency.
+     * - The reordered filter probes "timeout" first, at a lower expected cost, and matches the same lines as before.
+     */
+    @Test
+    void testRecord_RarestFirst() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        FilterMatchAll filter = new FilterMatchAll(1, "info user timeout", dictionary);
+        int info = dictionary.lookup("info"), user = dictionary.lookup("user"), timeout = dictionary.lookup("timeout");
+        TermStatistics statistics = new TermStatistics();
+        MatchScratch scratch = new MatchScratch();
+        int lines = TermStatistics.PERIOD * TermStatistics.SAMPLE_INTERVAL;
+        double costBefore = filter.estimateCost(statistics);
+
+        // Execution
+        int publications = 0;
+        for (int i = 0; i < lines; i++) {
+            String line = (i / TermStatistics.SAMPLE_INTERVAL) % 4 == 0 ? "INFO: user logged in" : "info: started";
+            scratch.tokenizer.tokenize(line, 0, line.length(), dictionary, scratch.lineTerms);
+            if (statistics.record(scratch.lineTerms, scratch)) {
+                publications++;
+                assertEquals(lines - 1, i);
+            }
+        }
+        filter.optimize(statistics);
+
+        // Assertion
+        assertEquals(1, publications);
+        assertEquals(1, statistics.getEpoch());
+        assertTrue(statistics.frequency(timeout) < statistics.frequency(user));
+        assertTrue(statistics.frequency(user) < statistics.frequency(info));
+        assertArrayEquals(new int[]{timeout, user, info}, filter.termIds);
+        assertTrue(filter.estimateCost(statistics) < costBefore, filter.estimateCost(statistics) + " >= " + costBefore);
+        assertEquals(1.0, filter.estimateCost(statistics), 0.01);
+        String matching = "Info: user session timeout";
+        scratch.tokenizer.tokenize(matching, 0, matching.length(), dictionary, scratch.lineTerms);
+        assertTrue(filter.doMatch(scratch.lineTerms));
+        assertEquals("info user timeout", filter.getTerms());
+    }
+
+    /**
+     * Tests that the inverted index probes the extra terms of a filter placed in its lattice rarest first
+     * once the statistics are published, without changing the matches.
+     *
+     * Test setup involves:
+     * - A filter "info", then a filter "info user timeout" placed under it with the extra terms "user" and "timeout",
+     *   and statistics of lines where "user" occurs in one line out of 4 and "timeout" in none.
+     *
+     * The test verifies:
+     * - The index probes "timeout" before "user" once optimized, in a new snapshot, the previous one keeping its order,
+     *   and the same lines match as before.
+     */
+    @Test
+    void testOptimize_ExtraTermsRarestFirst() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        InvertedIndex index = new InvertedIndex();
+        index.addFilter(new FilterMatchAll(1, "info", dictionary));
+        index.addFilter(new FilterMatchAll(2, "info user timeout", dictionary));
+        int user = dictionary.lookup("user"), timeout = dictionary.lookup("timeout");
+        TermStatistics statistics = new TermStatistics();
+        MatchScratch scratch = new MatchScratch();
+        for (int i = 0; i < TermStatistics.PERIOD * TermStatistics.SAMPLE_INTERVAL; i++) {
+            String line = (i / TermStatistics.SAMPLE_INTERVAL) % 4 == 0 ? "INFO: user logged in" : "info: started";
+            scratch.tokenizer.tokenize(line, 0, line.length(), dictionary, scratch.lineTerms);
+            statistics.record(scratch.lineTerms, scratch);
+        }
+        InvertedIndex.Snapshot before = index.snapshot;
+
+        // Execution
+        index.optimize(statistics);
+
+        // Assertion
+        assertArrayEquals(new int[]{user, timeout}, before.extraTerms[1]);
+        assertArrayEquals(new int[]{timeout, user}, index.snapshot.extraTerms[1]);
+        String[] lines = {"Info: user session timeout", "info: user logged in", "info: timeout"};
+        int[][] expected = {{1, 2}, {1}, {1}};
+        for (int i = 0; i < lines.length; i++) {
+            scratch.tokenizer.tokenize(lines[i], 0, lines[i].length(), dictionary, scratch.lineTerms);
+            assertArrayEquals(expected[i], index.match(scratch.lineTerms, scratch), lines[i]);
+        }
+    }
+
+    /**
+     * Tests that the filters evaluated one by one are ordered by increasing estimated cost.
+     *
+     * Test setup involves:
+     * - Statistics without any recorded line, and three filters with 3, 1 and 2 terms.
+     *
+     * The test verifies:
+     * - The filters are ordered by number of expected probes, which is their number of terms when every term is rare
+     *   enough to fail the first probe almost always, and by identifier for equal costs.
+     */
+    @Test
+    void testByCost() {
+        // Setup
+        TermDictionary dictionary = new TermDictionary();
+        TermStatistics statistics = new TermStatistics();
+        IFilter[] filters = {new FilterMatchAll(1, "a b c", dictionary), new FilterMatchAll(2, "a", dictionary),
+                new FilterMatchAll(3, "b c", dictionary), new FilterMatchAll(4, "c", dictionary)};
+
+        // Execution
+        Arrays.sort(filters, statistics.byCost());
+
+        // Assertion
+        assertArrayEquals(new int[]{2, 4, 3, 1}, Arrays.stream(filters).mapToInt(IFilter::getFilterIdentifier).toArray());
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VectorNormalizerTest {
+
+    /**
+     * Normalizes the given text the way log lines were normalized before the tokenizer was introduced.
+     */
+    private static String[] legacySplit(String text) {
+        return text.trim().replaceAll("\\p{Punct}", "").trim().toLowerCase(Locale.ROOT).split("\s+");
+    }
+
+    /**
+     * Tests that the vector path of the tokenizer produces the same tokens as its scalar path and as the former
+     * regular expression based normalization.
+     *
+     * Test setup involves:
+     * - The vector normalizer loaded, else the test is skipped, and seeded random lines of 0 to 300 characters drawn from
+     *   letters of both cases, digits, every punctuation character, spaces, tabs and control characters,
+     *   a tenth of them holding a non-ASCII letter.
+     *
+     * The test verifies:
+     * - The tokens of every line are identical whichever path splits it.
+     */
+    @Test
+    void testSplit_SameAsScalar() {
+        // Setup
+        assumeTrue(LineTokenizer.VECTOR != null, "jdk.incubator.vector not added");
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~    \t\u0001\u007f";
+        String nonAscii = "éßİΣ  ";
+        Random random = new Random(7);
+        LineTokenizer vectorTokenizer = new LineTokenizer(Locale.ROOT);
+        LineTokenizer scalarTokenizer = new LineTokenizer(Locale.ROOT);
+        scalarTokenizer.vector = null;
+
+        // Execution and Assertion
+        assertSame(LineTokenizer.VECTOR, vectorTokenizer.vector);
+        for (int n = 0; n < 5000; n++) {
+            StringBuilder line = new StringBuilder();
+            for (int i = random.nextInt(300); i > 0; i--) line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            if (n % 10 == 0 && line.length() > 0)
+                line.setCharAt(random.nextInt(line.length()), nonAscii.charAt(random.nextInt(nonAscii.length())));
+            String text = line.toString();
+            String[] expected = scalarTokenizer.split(text);
+            assertArrayEquals(expected, vectorTokenizer.split(text), "Tokens differ for |" + text + "|");
+            assertArrayEquals(legacySplit(text), expected, "Tokens differ for |" + text + "|");
+        }
+    }
+
+    /**
+     * Tests that the vector normalizer folds and marks the characters of every position of a vector and of the tail,
+     * and rejects non-ASCII text.
+     *
+     * Test setup involves:
+     * - The vector normalizer loaded, else the test is skipped, and a text of 100 characters with a letter,
+     *   a space or a punctuation character at each position.
+     *
+     * The test verifies:
+     * - The letters are folded, exactly the spaces and punctuation characters are marked, and any character
+     *   from 128 up makes the text rejected.
+     */
+    @Test
+    void testNormalize_Marks() {
+        // Setup
+        assumeTrue(LineTokenizer.VECTOR != null, "jdk.incubator.vector not added");
+        char[] chars = new char[100];
+        for (int i = 0; i < chars.length; i++) chars[i] = (i % 3 == 0 ? ' ' : i % 3 == 1 ? (char) ('A' + i % 26) : (i % 2 == 0 ? '[' : '~'));
+        long[] marks = {-1, -1};
+        AsciiNormalizer normalizer = LineTokenizer.VECTOR;
+
+        // Execution
+        assertTrue(normalizer.normalize(chars, chars.length, marks));
+
+        // Assertion
+        for (int i = 0; i < chars.length; i++) {
+            assertEquals(i % 3 != 1, (marks[i >>> 6] & (1L << i)) != 0, "Mark of " + i);
+            if (i % 3 == 1) assertEquals((char) ('a' + i % 26), chars[i]);
+        }
+        assertEquals(0, marks[1] >>> (chars.length - 64));
+        for (int i = 0; i < chars.length; i += 7) {
+            char[] other = "The quick brown fox jumps over the lazy dog, again and again and again, until the end of the line..".toCharArray();
+            other[i] = '\u0080';
+            assertFalse(normalizer.normalize(other, other.length, marks), "Non-ASCII at " + i);
+        }
+    }
+}